@@ -0,0 +1,161 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.Calendar;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.willwebberley.gowertides.classes.Tides;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+/*
+* Compares the app's two tide backends, TideStore and DayDatabase, on the read DaysActivity makes: one getDaysInfo
+* call for a 40 day window, read through the Cursor the same way Utilities does.
+*
+* 'Cold' is opening the backend plus the first read; 'warm' is the average of later reads. Both backends are opened
+* once beforehand so that neither cold figure includes copying its asset out on first install. Timings are printed
+* rather than asserted on, as they depend on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TideSourceBenchmarkTest {
+
+    private static final int DAYS = 40;
+    private static final int WARM_RUNS = 50;
+
+    private Context context;
+
+    @Before
+    public void setUp(){
+        context = InstrumentationRegistry.getTargetContext();
+        TideStore store = TideStore.open(context);
+        assumeNotNull(store);
+        DayDatabase db = new DayDatabase(context);
+        db.getFirstEpochDay();
+        db.close();
+    }
+
+    @Test
+    public void backendsMatch() throws Exception {
+        TideStore store = TideStore.open(context);
+        DayDatabase db = new DayDatabase(context);
+        try{
+            assertEquals(db.getFirstEpochDay(), store.getFirstEpochDay());
+            assertEquals(db.getLastEpochDay(), store.getLastEpochDay());
+
+            Calendar from = store.getFirstDay();
+            Calendar to = (Calendar)from.clone();
+            to.add(Calendar.DATE, DAYS - 1);
+            Cursor expected = db.getDaysInfo(from, to);
+            Cursor actual = store.getDaysInfo(from, to);
+            assertEquals(expected.getCount(), actual.getCount());
+            for(expected.moveToFirst(), actual.moveToFirst(); !expected.isAfterLast(); expected.moveToNext(), actual.moveToNext()){
+                for(String column : TideStore.COLUMNS){
+                    int e = expected.getColumnIndexOrThrow(column), a = actual.getColumnIndexOrThrow(column);
+                    String day = "epoch day "+actual.getInt(0)+", "+column;
+                    assertEquals(day, expected.isNull(e), actual.isNull(a));
+                    if(column.equals("week_day") || column.equals("moon")){
+                        assertEquals(day, expected.getString(e), actual.getString(a));
+                    }
+                    else if(!expected.isNull(e)){
+                        assertEquals(day, expected.getInt(e), actual.getInt(a));
+                    }
+                }
+            }
+            expected.close();
+            actual.close();
+        }
+        finally{
+            db.close();
+        }
+    }
+
+    @Test
+    public void compareBackends(){
+        long start = System.nanoTime();
+        TideStore store = TideStore.open(context);
+        int storeCheck = readDays(store);
+        long storeCold = System.nanoTime() - start;
+        long storeWarm = timeWarm(store, storeCheck);
+
+        start = System.nanoTime();
+        DayDatabase db = new DayDatabase(context);
+        int dbCheck = readDays(db);
+        long dbCold = System.nanoTime() - start;
+        long dbWarm = timeWarm(db, dbCheck);
+        db.close();
+
+        assertEquals(dbCheck, storeCheck);
+        System.out.println("DayDatabase: cold "+(dbCold / 1000)+"us, warm "+(dbWarm / 1000)+"us per "+DAYS+" days");
+        System.out.println("TideStore: cold "+(storeCold / 1000)+"us, warm "+(storeWarm / 1000)+"us per "+DAYS+" days");
+    }
+
+    /*
+    * Average time of a read once the backend is open. Each read must see the same data as the first.
+     */
+    private long timeWarm(TideSource source, int check){
+        long start = System.nanoTime();
+        for(int i = 0; i < WARM_RUNS; i++){
+            assertEquals(check, readDays(source));
+        }
+        return (System.nanoTime() - start) / WARM_RUNS;
+    }
+
+    /*
+    * Read the first 40 days as Utilities does (the sun and moon columns, then the tides), returning a checksum so the
+    * reads can't be skipped and the backends can be compared.
+     */
+    private int readDays(TideSource source){
+        Calendar from = source.getFirstDay();
+        Calendar to = (Calendar)from.clone();
+        to.add(Calendar.DATE, DAYS - 1);
+        Cursor c = source.getDaysInfo(from, to);
+        int check = 0;
+        try{
+            for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()){
+                int epochDay = c.getInt(c.getColumnIndex("epoch_day"));
+                if(!c.isNull(c.getColumnIndex("sunrise"))){
+                    check = 31*check + c.getInt(c.getColumnIndex("sunrise"));
+                    check = 31*check + c.getInt(c.getColumnIndex("sunset"));
+                }
+                check = 31*check + c.getString(c.getColumnIndex("moon")).hashCode();
+                Tides tides = Tides.initTides(c, epochDay);
+                for(int i = 0; i < tides.size(); i++){
+                    check = 31*check + tides.getTime(i);
+                    check = 31*check + tides.getType(i);
+                }
+            }
+        }
+        catch(Exception e){
+            fail(e.toString());
+        }
+        finally{
+            c.close();
+        }
+        return check;
+    }
+}
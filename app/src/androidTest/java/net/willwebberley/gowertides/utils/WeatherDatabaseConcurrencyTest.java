@@ -0,0 +1,172 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/*
+* Reads made while a large sync is being stored. In write-ahead logging mode they read the last committed data, and so
+* shouldn't wait for the writer's transaction to finish.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.HONEYCOMB)
+public class WeatherDatabaseConcurrencyTest {
+
+    private static final int[] LOCATIONS = {1, 2, 3, 4};
+    private static final int ROWS_PER_LOCATION = 1000;
+
+    // Much less than the time the write takes, so a read that waited for the transaction would fail
+    private static final long MAX_READ_MS = 250;
+
+    private Context context;
+    private WeatherDatabase db;
+
+    @Before
+    public void setUp(){
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase("weather");
+        db = new WeatherDatabase(context);
+    }
+
+    @After
+    public void tearDown(){
+        db.close();
+        context.deleteDatabase("weather");
+    }
+
+    /*
+    * Hands the data over a little at a time, so the writer's transaction stays open for a few seconds.
+     */
+    private static class SlowInputStream extends FilterInputStream {
+        SlowInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try{
+                Thread.sleep(1);
+            }
+            catch(InterruptedException e){
+                throw new IOException(e.toString());
+            }
+            return super.read(b, off, Math.min(len, 512));
+        }
+    }
+
+    private static String forecast(int location, long timestamp, int rows){
+        Calendar today = Calendar.getInstance();
+        String date = ",\"year\":"+today.get(Calendar.YEAR)+",\"month\":"+(today.get(Calendar.MONTH) + 1)+
+                ",\"day\":"+today.get(Calendar.DAY_OF_MONTH);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"weather\":[{\"weather\":{\"timestamp\":").append(timestamp).append(date)
+                .append(",\"max_temp_c\":15,\"max_temp_f\":59,\"min_temp_c\":9,\"min_temp_f\":48")
+                .append(",\"wind_speed_miles\":10,\"wind_speed_km\":16,\"wind_direction\":\"SW\",\"wind_degree\":225")
+                .append(",\"icon_url\":\"http://example.com/images/wsymbol_0002_sunny_intervals.png\"")
+                .append(",\"weather_description\":\"Partly Cloudy\",\"precipitation\":0.2}}],\"surf\":[");
+        for(int i = 0; i < rows; i++){
+            if(i > 0){
+                json.append(',');
+            }
+            json.append("{\"location\":").append(location).append(",\"timestamp\":").append(timestamp)
+                    .append(",\"local_time\":").append(timestamp + i*60).append(date)
+                    .append(",\"hour\":").append(i % 24).append(",\"minute\":0,\"faded_rating\":1,\"solid_rating\":2")
+                    .append(",\"min_surf_height\":2.0,\"abs_min_surf_height\":1.5,\"max_surf_height\":3.0")
+                    .append(",\"abs_max_surf_height\":3.5,\"swell_height\":4.0,\"swell_period\":11.0,\"swell_angle\":250.0")
+                    .append(",\"swell_direction\":\"WSW\",\"swell_chart\":\"s\",\"period_chart\":\"p\",\"wind_chart\":\"w\"")
+                    .append(",\"pressure_chart\":\"r\",\"sst_chart\":\"t\"}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    @Test
+    public void readsDontWaitForSync() throws Exception {
+        final SyncClient.Response[] responses = new SyncClient.Response[LOCATIONS.length];
+        for(int i = 0; i < LOCATIONS.length; i++){
+            responses[i] = new SyncClient.Response();
+            responses[i].etag = "\"test\"";
+            responses[i].body = new SlowInputStream(new ByteArrayInputStream(
+                    forecast(LOCATIONS[i], 1000, ROWS_PER_LOCATION).getBytes("UTF-8")));
+        }
+
+        final int[] stored = {-1};
+        final Exception[] failure = new Exception[1];
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try{
+                    stored[0] = db.storeAll(LOCATIONS, responses);
+                }
+                catch(Exception e){
+                    failure[0] = e;
+                }
+            }
+        });
+        long writeStart = System.currentTimeMillis();
+        writer.start();
+
+        // Read until the writer is done, timing each read made while its transaction is open
+        Calendar today = Calendar.getInstance();
+        int reads = 0;
+        long slowestRead = 0;
+        while(writer.isAlive()){
+            long start = System.currentTimeMillis();
+            Cursor c = db.getSurfInfo(today, LOCATIONS[reads % LOCATIONS.length]);
+            int count = c.getCount();
+            c.close();
+            long time = System.currentTimeMillis() - start;
+            if(writer.isAlive()){
+                // Nothing is committed until the whole sync has been stored
+                assertEquals(0, count);
+                slowestRead = Math.max(slowestRead, time);
+                reads ++;
+            }
+        }
+        long writeTime = System.currentTimeMillis() - writeStart;
+        writer.join();
+
+        assertNull(failure[0]);
+        // (the weather is the same for every location, so is only stored once)
+        assertEquals(LOCATIONS.length * ROWS_PER_LOCATION + 1, stored[0]);
+        assertTrue("The write finished too quickly to test anything ("+writeTime+"ms)", writeTime > 4 * MAX_READ_MS);
+        assertTrue("Only "+reads+" reads made during the write", reads >= 10);
+        assertTrue("A read took "+slowestRead+"ms while the sync was being stored", slowestRead < MAX_READ_MS);
+
+        Cursor c = db.getSurfInfo(today, LOCATIONS[0]);
+        assertEquals(ROWS_PER_LOCATION, c.getCount());
+        c.close();
+    }
+}
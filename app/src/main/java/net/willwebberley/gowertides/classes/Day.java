@@ -21,9 +21,6 @@ import java.io.Serializable;
 import java.text.*;
 import java.util.*;
 
-import android.content.Context;
-import android.database.Cursor;
-import net.willwebberley.gowertides.ui.DaysActivity;
 import net.willwebberley.gowertides.utils.*;
 
 /*
@@ -31,95 +28,83 @@ import net.willwebberley.gowertides.utils.*;
 * and sunrise-sunset information.
 *
 * This is not a UI class, but contains the data represented in a DayFragment fragment.
+*
+* Days are immutable. The day is held as days since the epoch and times as minutes since the epoch (no Calendars), and
+* the tides are packed into a Tides. Rather than linking to the Days either side, a Day keeps their Tides (for
+* showing the continuation of the tide graph), see withNeighbours().
  */
 public class Day implements Serializable{
 
     /*
-    * Calendar representation of Day
+    * Value of sunrise and sunset times for days that have none
      */
-	private Calendar day;
+    public static final int NO_TIME = Integer.MIN_VALUE;
 
     /*
-    * Fields to hold day, tidal, weather, surf data
+    * Day represented, as days since the epoch
      */
-    private Calendar sunrise;
-    private Calendar sunset;
-    private String moon;
-    private Weather weather;
-    private ArrayList<Surf> surf_reports = new ArrayList<Surf>();
-    private ArrayList<Tide> tide_forecasts = new ArrayList<Tide>();
-
-    private Day yesterday, tomorrow;
+	private final int epochDay;
 
     /*
-    * Helper fields
+    * Fields to hold day, tidal, weather, surf data (weather and surf are null if there is none for the day)
      */
-	private Context context; // application context
-	private Boolean weatherAvailable; // true if weather data is available for day
-    private Boolean surfAvailable; // true if surf data is available for day
-    private Boolean tidesAvailable; // true if tides data is available for day
+    private final int sunrise; // minutes since the epoch, or NO_TIME
+    private final int sunset;
+    private final String moon;
+    private final Weather weather;
+    private final ArrayList<Surf> surf_reports;
+    private final Tides tides;
+    private final Tides yesterdayTides, tomorrowTides;
 
-    /*
-    * Instantiate object with a Calendar day to represent,
-     */
-    public Day(Calendar date){
-        day = date;
+    public Day(int epochDay, int sunrise, int sunset, String moon, Tides tides, Weather weather, ArrayList<Surf> surf){
+        this(epochDay, sunrise, sunset, moon, tides, weather, surf, Tides.NONE, Tides.NONE);
     }
 
-    /*
-    * Set the day's information (which is processed externally from the databases):
-     */
-    public void setGeneral(Calendar sunrise, Calendar sunset, String moon){
+    private Day(int epochDay, int sunrise, int sunset, String moon, Tides tides, Weather weather, ArrayList<Surf> surf,
+                Tides yesterdayTides, Tides tomorrowTides){
+        this.epochDay = epochDay;
         this.sunrise = sunrise;
         this.sunset = sunset;
         this.moon = moon;
-    }
-    public void setTide(ArrayList<Tide> t, Boolean available){
-        this.tide_forecasts = t;
-        this.tidesAvailable = available;
-    }
-    public void setWeather(Weather w, Boolean available){
-        this.weather = w;
-        this.weatherAvailable = available;
-    }
-    public void setSurf(ArrayList<Surf> s, Boolean available){
-        this.surf_reports = s;
-        this.surfAvailable = available;
+        this.tides = tides == null ? Tides.NONE : tides;
+        this.weather = weather;
+        this.surf_reports = surf;
+        this.yesterdayTides = yesterdayTides;
+        this.tomorrowTides = tomorrowTides;
     }
 
-
     /*
-    * Set the instance of Day representing the day before this one (for showing continuation of tide graph)
+    * Copy of this Day with the tides of the days before and after it (for showing continuation of tide graph)
      */
-    public void setYesterday(Day y){
-        yesterday = y;
-    }
-    public Day getYesterday(){
-        return yesterday;
+    public Day withNeighbours(Tides yesterday, Tides tomorrow){
+        return new Day(epochDay, sunrise, sunset, moon, tides, weather, surf_reports,
+                yesterday == null ? Tides.NONE : yesterday, tomorrow == null ? Tides.NONE : tomorrow);
     }
 
-
     /*
-    * Set instance of Day representing day after this one (for showing continuation of tide graph)
+    * False for days whose tides are predicted, which have no sunrise or sunset times.
      */
-    public void setTomorrow(Day t){
-        tomorrow = t;
-    }
-    public Day getTomorrow(){
-        return tomorrow;
+    public boolean isSunAvailable(){
+        return sunrise != NO_TIME && sunset != NO_TIME;
     }
 
     /*
     * Check if there is weather data for this day.
      */
-	public Boolean isWeatherAvailable(){
-		return weatherAvailable;
+	public boolean isWeatherAvailable(){
+		return weather != null;
 	}
     /*
     * Check if there is surf data for this day.
      */
-    public Boolean isSurfAvailable(){
-        return surfAvailable;
+    public boolean isSurfAvailable(){
+        return surf_reports != null;
+    }
+    /*
+    * Check if there are tides for this day.
+     */
+    public boolean isTidesAvailable(){
+        return !tides.isEmpty();
     }
 
 
@@ -129,45 +114,62 @@ public class Day implements Serializable{
     public ArrayList<Surf> getSurfReports(){
         return surf_reports;
     }
-    public ArrayList<Tide> getTides(){
-        return tide_forecasts;
+    public Tides getTides(){
+        return tides;
+    }
+    public Tides getYesterdayTides(){
+        return yesterdayTides;
+    }
+    public Tides getTomorrowTides(){
+        return tomorrowTides;
     }
     public Weather getWeather(){
         return weather;
     }
+    public String getMoon(){
+        return moon;
+    }
+    public int getEpochDay(){
+        return epochDay;
+    }
 
     /*
-    * Get the sunrise time of day in hours (for plotting on the graph) (add 0.0 to make it Double type)
+    * Get a time (minutes since the epoch) as hours from the start of this day (for plotting on the graph)
      */
-    public Double getSunriseTimeHours(){
-        return (sunrise.get(Calendar.HOUR_OF_DAY)+((sunrise.get(Calendar.MINUTE)+0.0)/60)+0.0);
+    public double getTimeHours(int time){
+        return Utilities.tideMinuteOfDay(epochDay, time) / 60.0;
     }
 
     /*
-    * Get the sunset time of day in hours (for plotting on the graph) (add 0.0 to make it Double type)
+    * Get the sunrise and sunset times of day in hours (for plotting on the graph)
      */
-    public Double getSunsetTimeHours(){
-        return (sunset.get(Calendar.HOUR_OF_DAY)+((sunset.get(Calendar.MINUTE)+0.0)/60)+0.0);
+    public double getSunriseTimeHours(){
+        return getTimeHours(sunrise);
+    }
+    public double getSunsetTimeHours(){
+        return getTimeHours(sunset);
     }
 
     /*
-    * Get the current time of day in hours (for plotting on the graph) (add 0.0 to make it Double type)
+    * Get the clock's time of day in hours (for plotting on the graph)
      */
-    public Double getCurrentTimeHours(){
-        Calendar now = Calendar.getInstance();
-        return (now.get(Calendar.HOUR_OF_DAY)+((now.get(Calendar.MINUTE)+0.0)/60)+0.0);
+    public double getCurrentTimeHours(Clock clock){
+        return getTimeHours(clock.getEpochMinute());
     }
 
     /*
     *  Get sunrise and sunset times in different formats
      */
 	public String getSunriseString(){
-		return (new SimpleDateFormat("HH:mm")).format(sunrise.getTime());
+		return Utilities.formatTideTime(sunrise);
 	}
 	public String getSunsetString(){
-		return (new SimpleDateFormat("HH:mm")).format(sunset.getTime());
+		return Utilities.formatTideTime(sunset);
 	}
-    public Calendar getSunset(){
+    public int getSunrise(){
+        return sunrise;
+    }
+    public int getSunset(){
         return sunset;
     }
 
@@ -175,25 +177,28 @@ public class Day implements Serializable{
     * String representation of this Day (shown at top of main activity)
      */
 	public String toString(){
-		return (new SimpleDateFormat("E, dd MMM yyyy")).format(day.getTime());
+		return formatDate(getDay());
 	}
 
+    /*
+    * As toString(), for a day that hasn't been loaded.
+     */
+    public static String formatDate(Calendar day){
+        return (new SimpleDateFormat("E, dd MMM yyyy")).format(day.getTime());
+    }
+
+    /*
+    * New Calendar (at midnight, local time) for this Day.
+     */
     public Calendar getDay(){
-        return day;
+        return Utilities.fromEpochDay(epochDay);
     }
 
     /*
-    * Check if this Day represents real-life 'day'
+    * Check if this Day represents real-life 'day' (by the clock)
      */
-	public Boolean isToday(){
-		Calendar now = Calendar.getInstance();
-		Calendar dayToCheck = day;
-		if(now.get(Calendar.MONTH) == dayToCheck.get(Calendar.MONTH) && now.get(Calendar.YEAR) == dayToCheck.get(Calendar.YEAR) && now.get(Calendar.DAY_OF_MONTH) == dayToCheck.get(Calendar.DAY_OF_MONTH)){
-			return true;
-		}
-		else{
-			return false;
-		}
+	public boolean isToday(Clock clock){
+		return epochDay == clock.getEpochDay();
 	}
 
 }
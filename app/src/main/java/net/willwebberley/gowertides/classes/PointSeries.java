@@ -0,0 +1,81 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.classes;
+
+import com.androidplot.xy.XYSeries;
+
+/*
+* XYSeries backed by arrays of primitive doubles, so that a graph's points can be rewritten in place rather than
+* building lists of boxed values and a new series each time.
+*
+* Points should only be changed while holding the lock of the plot showing the series (Plot.renderOnCanvas() holds it
+* while drawing).
+ */
+public class PointSeries implements XYSeries {
+
+    private final String title;
+    private double[] xValues, yValues;
+    private int size = 0;
+
+    public PointSeries(String title, int capacity){
+        this.title = title;
+        xValues = new double[capacity];
+        yValues = new double[capacity];
+    }
+
+    public String getTitle(){
+        return title;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public Number getX(int index){
+        return xValues[index];
+    }
+
+    public Number getY(int index){
+        return yValues[index];
+    }
+
+    public double getYValue(int index){
+        return yValues[index];
+    }
+
+    /*
+    * Remove all points (an empty series draws nothing, but keeps its place in the plot).
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    public void add(double x, double y){
+        if(size == xValues.length){
+            double[] x2 = new double[size*2];
+            double[] y2 = new double[size*2];
+            System.arraycopy(xValues, 0, x2, 0, size);
+            System.arraycopy(yValues, 0, y2, 0, size);
+            xValues = x2;
+            yValues = y2;
+        }
+        xValues[size] = x;
+        yValues[size] = y;
+        size ++;
+    }
+}
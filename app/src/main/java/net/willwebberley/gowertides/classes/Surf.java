@@ -51,12 +51,14 @@ public class Surf implements Serializable{
         // 13abs_max_surf 14swell_height 15swell_period 16swell_angle 17swell_direction 18swell_chart 19period_chart
         // 20wind_chart 21pressure_chart 22sst_chart
 
-        // Assumes data from DB is returned ordered by timestamp DESC
+        // Assumes data from DB is returned ordered by timestamp DESC (within each day)
         long recent_request_timestamp = surfInfo.getLong(1);
+        int year = surfInfo.getInt(3), month = surfInfo.getInt(4), day = surfInfo.getInt(5);
         ArrayList<Surf> surf_reports = new ArrayList<Surf>();
         //surf_reports.clear();
-        // Only get data for the most recent timestamp:
-        while (! surfInfo.isLast() && surfInfo.getLong(1) == recent_request_timestamp){
+        // Only get data for the most recent timestamp (and stop at the next day if the cursor covers several):
+        while (! surfInfo.isAfterLast() && surfInfo.getLong(1) == recent_request_timestamp
+                && surfInfo.getInt(5) == day && surfInfo.getInt(4) == month && surfInfo.getInt(3) == year){
             Surf surf = new Surf();
             surf.hour = surfInfo.getInt(6);
             surf.location = surfInfo.getInt(0);
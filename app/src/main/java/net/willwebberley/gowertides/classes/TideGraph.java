@@ -19,19 +19,17 @@ package net.willwebberley.gowertides.classes;
 
 import java.text.DecimalFormat;
 
-import java.util.*;
-
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.*;
 import android.preference.PreferenceManager;
 
-import com.androidplot.xy.XYSeries;
 import com.androidplot.xy.LineAndPointFormatter;
-import com.androidplot.xy.SimpleXYSeries;
 import com.androidplot.xy.XYPlot;
 import com.androidplot.xy.XYStepMode;
 
+import net.willwebberley.gowertides.utils.Clock;
+
 /*
 * Class to represent the tide graph shown on each day fragment.
 *
@@ -43,10 +41,16 @@ import com.androidplot.xy.XYStepMode;
 public class TideGraph {
 
 	private XYPlot plot;
-	private XYSeries series, timeSeries, sunriseSeries, sunsetSeries;
 	private Day day;
 	private SharedPreferences prefs;
 
+	// The series are added to the plot once (in the order they are drawn) and then rewritten in place for each Day.
+	// A series that shouldn't be shown is left empty.
+	private final PointSeries sunriseSeries = new PointSeries("Sunrise", 2);
+	private final PointSeries sunsetSeries = new PointSeries("Sunset", 2);
+	private final PointSeries tideSeries = new PointSeries("Tides", 8);
+	private final PointSeries timeSeries = new PointSeries("Time", 2);
+
     /*
     * Initialize TideGraph instance with the UI View representing the graph and the application context.
      */
@@ -55,102 +59,60 @@ public class TideGraph {
 
 		prefs = PreferenceManager.getDefaultSharedPreferences(context);
 		initGraph();
+		initSeries();
 	}
 
     /*
     * Set the Day to be represented by the graph.
     *
-    * Method then goes on to format the rest of the graph, including colours etc., and also to draw on support
-    * information, such as sunrise/sunset times and the current time.
+    * Method then goes on to set the rest of the graph, and also to draw on support information, such as
+    * sunrise/sunset times and the current time.
      */
 	public void setDay(Day d){
-		// Get the current day and reset graph
 		day = d;
-		plot.removeSeries(series);
-		plot.removeSeries(timeSeries);
-		plot.removeSeries(sunriseSeries);
-		plot.removeSeries(sunsetSeries);
-
-    // Create the 3 series types...
-		createSunSeries();
-    createTideSeries();
-    createCurrentTimeSeries();
-
-    // Refresh the plot display
-    plot.redraw();
+		synchronized(plot){
+			setSunSeries();
+			setTideSeries();
+		}
+		// Add the current time and refresh the plot display
+		updateTime();
 	}
 
-    private void createSunSeries(){
-        // If the sunset and sunrise times should be drawn...
-        if(prefs.getBoolean("show_graph_sunrise_sunset", true)){
-            Double sunriseTime = day.getSunriseTimeHours();
-            Double sunsetTime = day.getSunsetTimeHours();
-            Double[] xValues1 = {-3.0,sunriseTime};
-            Double[] xValues2 = {sunsetTime,28.0};
-            Double[] yValues = {15.0, 15.0};
-            sunriseSeries = new SimpleXYSeries(
-                    Arrays.asList(xValues1),
-                    Arrays.asList(yValues),
-                    "Sunrise");
-            sunsetSeries = new SimpleXYSeries(
-                    Arrays.asList(xValues2),
-                    Arrays.asList(yValues),
-                    "Sunrise");
-            LineAndPointFormatter formatter = new LineAndPointFormatter(
-                    Color.rgb(200, 200, 200),	// line color
-                    null,                   	// point color
-                    Color.rgb(220, 220, 220),  // fill Color
-										null
-						);
-            Paint lineFill = new Paint();
-            lineFill.setAlpha(60);
-            formatter.setFillPaint(lineFill);
-            plot.addSeries(sunriseSeries, formatter);
-            plot.addSeries(sunsetSeries, formatter);
-        }
-    }
-
-    private void createTideSeries(){
-        ArrayList<Tide> tides = day.getTides();
-        int numTides = tides.size();
-
-        // Get the tide times and heights and assign to a series
-        Double[] heights = new Double[numTides];
-        Double[] times = new Double[numTides];
-
-        for(int i = 0; i < numTides; i++){
-            heights[i] = tides.get(i).height;
-            times[i] = tides.get(i).timeHours;
-        }
-
-        if(day.getYesterday() != null){
-            Double[] heights2 = new Double[heights.length+1];
-            Double[] times2 = new Double[times.length+1];
-            heights2[0] = day.getYesterday().getTides().get(day.getYesterday().getTides().size()-1).height;
-            times2[0] = day.getYesterday().getTides().get(day.getYesterday().getTides().size()-1).timeHours - 24;
-            for(int i = 1; i<=heights.length; i++){
-                heights2[i] = heights[i-1];
-                times2[i] = times[i-1];
-            }
-            heights = heights2;
-            times = times2;
+    /*
+    * Move the current time line to the shared clock's time, showing it only if the day is today. Only this series
+    * changes, so this is all that needs redrawing each minute.
+     */
+    public void updateTime(){
+        if(day == null){
+            return;
         }
-        if(day.getTomorrow() != null){
-            Double[] heights2 = new Double[heights.length+1];
-            Double[] times2 = new Double[times.length+1];
-            heights2[heights2.length-1] = day.getTomorrow().getTides().get(0).height;
-            times2[times2.length-1] = day.getTomorrow().getTides().get(0).timeHours + 24;
-            for(int i = 0; i<heights.length; i++){
-                heights2[i] = heights[i];
-                times2[i] = times[i];
+        Clock clock = Clock.getShared();
+        synchronized(plot){
+            // If current day, paint red vertical line on graph at the current time
+            timeSeries.clear();
+            if(prefs.getBoolean("show_graph_time", true) && day.isToday(clock)){
+                double currentTime = day.getCurrentTimeHours(clock);
+                timeSeries.add(currentTime, 0.0);
+                timeSeries.add(currentTime, 20.0);
             }
-            heights = heights2;
-            times = times2;
         }
+        plot.redraw();
+    }
 
-        series = new SimpleXYSeries(Arrays.asList(times), Arrays.asList(heights), "Tides");
+    /*
+    * Create the formats of the series (along with their paints and shaders) and add the series to the plot.
+     */
+    private void initSeries(){
+        LineAndPointFormatter sunFormat = new LineAndPointFormatter(
+                Color.rgb(200, 200, 200),	// line color
+                null,                   	// point color
+                Color.rgb(220, 220, 220),  // fill Color
+								null
+				);
+        Paint sunFill = new Paint();
+        sunFill.setAlpha(60);
+        sunFormat.setFillPaint(sunFill);
 
-        // Format the series
         LineAndPointFormatter heightsFormat = new LineAndPointFormatter(
                 Color.rgb(0, 150, 220),  	// line color
                 null,                   	// point color
@@ -162,44 +124,62 @@ public class TideGraph {
         lineFill.setShader(new LinearGradient(0, 0, 0, 250, Color.WHITE, Color.rgb(0, 150, 220), Shader.TileMode.CLAMP));
         heightsFormat.setFillPaint(lineFill);
 
-        // Add the series to the graph
-        plot.addSeries(series, heightsFormat);
+        LineAndPointFormatter timeFormat = new LineAndPointFormatter(
+                Color.rgb(200, 0, 0),   // line color
+                null,                   // point color
+                Color.rgb(200, 0, 0),		// fill color
+								null
+				);
+        timeFormat.getLinePaint().setStyle(Paint.Style.STROKE);
+        timeFormat.getLinePaint().setStrokeWidth(5);
+
+        plot.addSeries(sunriseSeries, sunFormat);
+        plot.addSeries(sunsetSeries, sunFormat);
+        plot.addSeries(tideSeries, heightsFormat);
+        plot.addSeries(timeSeries, timeFormat);
+    }
 
-        // Get highest tide height and adjust y-axis accordingly
-        Double largestHeight = 0.0;
-        for(int i = 0; i < heights.length; i++){
-            if(heights[i]>largestHeight){
-                largestHeight = heights[i];
-            }
+    private void setSunSeries(){
+        sunriseSeries.clear();
+        sunsetSeries.clear();
+        // If the sunset and sunrise times should be drawn...
+        if(prefs.getBoolean("show_graph_sunrise_sunset", true) && day.isSunAvailable()){
+            double sunriseTime = day.getSunriseTimeHours();
+            double sunsetTime = day.getSunsetTimeHours();
+            sunriseSeries.add(-3.0, 15.0);
+            sunriseSeries.add(sunriseTime, 15.0);
+            sunsetSeries.add(sunsetTime, 15.0);
+            sunsetSeries.add(28.0, 15.0);
         }
-        plot.setRangeTopMin((Number)(largestHeight+1));
-        plot.setRangeTopMax((Number)(largestHeight+1));
     }
 
-    private void createCurrentTimeSeries(){
-        // If the current time should be drawn...
-        if(prefs.getBoolean("show_graph_time", true)){
-            // If current day, get current time and paint red vertical line on graph
-            if(day.isToday()){
-                Double currentTime = day.getCurrentTimeHours();
-                Double[] xValues = {currentTime,currentTime};
-                Double[] yValues = {0.0, 20.0};
-                timeSeries = new SimpleXYSeries(
-                        Arrays.asList(xValues),
-                        Arrays.asList(yValues),
-                        "Time");
+    private void setTideSeries(){
+        Tides tides = day.getTides();
+        tideSeries.clear();
 
-                LineAndPointFormatter timeFormat = new LineAndPointFormatter(
-                        Color.rgb(200, 0, 0),   // line color
-                        null,                   // point color
-                        Color.rgb(200, 0, 0),		// fill color
-												null
-								);
-                timeFormat.getLinePaint().setStyle(Paint.Style.STROKE);
-                timeFormat.getLinePaint().setStrokeWidth(5);
-                plot.addSeries(timeSeries, timeFormat);
+        // Get the tide times and heights, with yesterday's last tide and tomorrow's first either side
+        // (times of the neighbouring days' tides are relative to this day, so fall before 0h and after 24h)
+        Tides yesterday = day.getYesterdayTides();
+        if(!yesterday.isEmpty()){
+            tideSeries.add(day.getTimeHours(yesterday.getTime(yesterday.size()-1)), yesterday.getHeight(yesterday.size()-1));
+        }
+        for(int i = 0; i < tides.size(); i++){
+            tideSeries.add(day.getTimeHours(tides.getTime(i)), tides.getHeight(i));
+        }
+        Tides tomorrow = day.getTomorrowTides();
+        if(!tomorrow.isEmpty()){
+            tideSeries.add(day.getTimeHours(tomorrow.getTime(0)), tomorrow.getHeight(0));
+        }
+
+        // Get highest tide height and adjust y-axis accordingly
+        double largestHeight = 0.0;
+        for(int i = 0; i < tideSeries.size(); i++){
+            if(tideSeries.getYValue(i) > largestHeight){
+                largestHeight = tideSeries.getYValue(i);
             }
         }
+        plot.setRangeTopMin((Number)(largestHeight+1));
+        plot.setRangeTopMax((Number)(largestHeight+1));
     }
 
 	/*
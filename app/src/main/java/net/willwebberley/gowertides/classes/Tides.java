@@ -0,0 +1,140 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.classes;
+
+import android.database.Cursor;
+
+import java.io.Serializable;
+import java.text.ParseException;
+
+import net.willwebberley.gowertides.utils.Clock;
+import net.willwebberley.gowertides.utils.Utilities;
+
+/*
+* The tidal events (type (low/high), time, height) of one day, packed into parallel arrays.
+*
+* Times are minutes since the epoch (UTC), heights are in cm and types are LOW or HIGH, so a day's tides take a few
+* dozen bytes rather than an object (with its own Calendar) per tide. Instances are immutable.
+ */
+public final class Tides implements Serializable {
+    public static final byte LOW = 0;
+    public static final byte HIGH = 1;
+
+    public static final Tides NONE = new Tides(new int[0], new short[0], new byte[0]);
+
+    private final int[] times;
+    private final short[] heights;
+    private final byte[] types;
+
+    public Tides(int[] times, short[] heights, byte[] types){
+        this.times = times;
+        this.heights = heights;
+        this.types = types;
+    }
+
+    public int size(){
+        return times.length;
+    }
+    public boolean isEmpty(){
+        return times.length == 0;
+    }
+
+    /*
+    * Time of the tide in minutes since the epoch.
+     */
+    public int getTime(int i){
+        return times[i];
+    }
+    /*
+    * Height of the tide in metres.
+     */
+    public double getHeight(int i){
+        return heights[i] / 100.0;
+    }
+    public byte getType(int i){
+        return types[i];
+    }
+
+    // Used for showing tides in the tide table (HH:mm, in the tide tables' time zone)
+    public String getTimeString(int i){
+        return Utilities.formatTideTime(times[i]);
+    }
+
+    // Write the difference between a time (minutes since the epoch) and the time of the tide ((+|-)H:mm, negative if
+    // the tide is behind the time) into the buffer at the offset, returning the number of chars written (at most 6)
+    public int formatTimeDifference(int i, int now, char[] buffer, int offset){
+        int diff = now - times[i];
+        buffer[offset] = diff >= 0 ? '-' : '+';
+        return 1 + Clock.formatDuration(diff, false, buffer, offset+1);
+    }
+
+    /*
+    * Read the tides from a tide row for the day (as days since the epoch).
+     */
+    public static Tides initTides(Cursor tideInfo, int epochDay) throws ParseException {
+        if(Utilities.isCompiledTideRow(tideInfo)){
+            return initCompiledTides(tideInfo, epochDay);
+        }
+        // TIDE INFO:
+        // 0year 1month 2day 3week_day 4sunrise 5sunset 6moon 7high1_time 8high1_height 9low1_time 10low1_height
+        // 11high2_time 12high2_height 13low2_time 14low2_height 15high3_time 16high3_height
+        int count = 0;
+        for(int i = 7; i <= 15; i = i+2){
+            if(! tideInfo.getString(i).equals("")){
+                count++;
+            }
+        }
+        int[] times = new int[count];
+        short[] heights = new short[count];
+        byte[] types = new byte[count];
+        int n = 0;
+        int tideCounter = 1;
+        for(int i = 7; i <= 15; i = i+2){
+            if(! tideInfo.getString(i).equals("")){
+                times[n] = Utilities.tideEpochMinute(epochDay, Utilities.parseTideTime(tideInfo.getString(i)));
+                heights[n] = (short)Math.round(Double.parseDouble((tideInfo.getString(i+1).replace("m","")).trim()) * 100);
+                types[n] = tideCounter%2 == 0 ? LOW : HIGH;
+                n++;
+            }
+            tideCounter++;
+        }
+        return new Tides(times, heights, types);
+    }
+
+    /*
+    * As above, for rows from a compiled tide asset. Each of the tide slots holds a time (minutes from midnight UTC),
+    * a height (cm) and a type (0 low, 1 high), and unused slots are NULL, so no text parsing is needed.
+     */
+    private static Tides initCompiledTides(Cursor tideInfo, int epochDay){
+        int firstSlot = tideInfo.getColumnIndex("tide1_time");
+        int count = 0;
+        for(int i = firstSlot; i + 2 < tideInfo.getColumnCount() && !tideInfo.isNull(i); i = i+3){
+            count++;
+        }
+        int[] times = new int[count];
+        short[] heights = new short[count];
+        byte[] types = new byte[count];
+        for(int n = 0; n < count; n++){
+            int i = firstSlot + n*3;
+            times[n] = epochDay*1440 + tideInfo.getInt(i);
+            heights[n] = tideInfo.getShort(i+1);
+            types[n] = tideInfo.getInt(i+2) == HIGH ? HIGH : LOW;
+        }
+        return new Tides(times, heights, types);
+    }
+}
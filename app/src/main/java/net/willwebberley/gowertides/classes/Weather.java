@@ -35,6 +35,7 @@ public class Weather  implements Serializable {
     public String wind_direction;
     public int wind_degree;
     public String icon_url;
+    public String icon; // asset name of the icon (see getIconName()), resolved when the weather was stored
     public String description;
     public Double precipitation;
 
@@ -52,7 +53,18 @@ public class Weather  implements Serializable {
 		else{return wind_speed_miles;}
     }
 	public String getWeatherIcon(){
-		String[] tokens = icon_url.split("\\/");
+		return icon;
+	}
+
+    /*
+    * Name of the icon asset for the given icon_url (its "wsymbol_0..." path segment), or null if it has none.
+    * Done once as the weather is stored, rather than each time it is shown.
+     */
+    public static String getIconName(String iconUrl){
+        if(iconUrl == null){
+            return null;
+        }
+		String[] tokens = iconUrl.split("\\/");
 		for(int i = 0; i < tokens.length; i++){
 			if(tokens[i].contains("wsymbol_0")){
 				return tokens[i];
@@ -65,7 +77,7 @@ public class Weather  implements Serializable {
     public static Weather initWeather(Cursor weatherInfo){
         // WEATHER INFO:
         // 0timestamp 1year 2month 3day 4max_temp_c 5max_temp_f 6min_temp_c 7min_temp_f 8wind_speed_miles
-        // 9wind_speed_km 10wind_direction 11wind_degree 12icon_url 13description 14precipitation
+        // 9wind_speed_km 10wind_direction 11wind_degree 12icon_url 13description 14precipitation 15epoch_day 16icon
 
         Weather weather = new Weather();
         weather.max_temp_c = weatherInfo.getInt(4);
@@ -79,6 +91,7 @@ public class Weather  implements Serializable {
         weather.icon_url = weatherInfo.getString(12);
         weather.description = weatherInfo.getString(13);
         weather.precipitation = weatherInfo.getDouble(14);
+        weather.icon = weatherInfo.getString(16);
         return weather;
     }
 }
@@ -0,0 +1,82 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.ui;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+
+/*
+* Tide and surf cards that aren't currently shown, kept so that the next page to be shown can rebind them rather than
+* inflating new ones.
+*
+* Cards are inflated with the application context, so can be moved between fragments. Only used from the main thread.
+ */
+public class CardPool {
+
+    // Most cards of each kind kept (about as many as three pages of the pager show)
+    public static final int MAX_POOLED = 24;
+
+    private static final ArrayList<TideFragment> tideCards = new ArrayList<TideFragment>();
+    private static final ArrayList<SurfFragment> surfCards = new ArrayList<SurfFragment>();
+
+    /*
+    * Get a tide card from the pool, inflating a new one only if it is empty.
+     */
+    public static TideFragment obtainTide(Context context){
+        if(!tideCards.isEmpty()){
+            return tideCards.remove(tideCards.size() - 1);
+        }
+        return new TideFragment(context.getApplicationContext());
+    }
+
+    public static SurfFragment obtainSurf(Context context){
+        if(!surfCards.isEmpty()){
+            return surfCards.remove(surfCards.size() - 1);
+        }
+        return new SurfFragment(context.getApplicationContext());
+    }
+
+    /*
+    * Take the card out of its layout and put it back in the pool.
+     */
+    public static void recycle(TideFragment card){
+        card.unbind();
+        detach(card.getView());
+        if(tideCards.size() < MAX_POOLED){
+            tideCards.add(card);
+        }
+    }
+
+    public static void recycle(SurfFragment card){
+        card.unbind();
+        detach(card.getView());
+        if(surfCards.size() < MAX_POOLED){
+            surfCards.add(card);
+        }
+    }
+
+    private static void detach(View view){
+        ViewGroup parent = (ViewGroup)view.getParent();
+        if(parent != null){
+            parent.removeView(view);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.ui;
+
+import java.util.Calendar;
+
+import android.app.DatePickerDialog;
+import android.app.Dialog;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.app.DialogFragment;
+import android.widget.DatePicker;
+
+import net.willwebberley.gowertides.utils.Utilities;
+
+/*
+* Dialog to jump straight to a date. The date picker starts at the day being shown and is limited (where the platform
+* allows) to the days the pager covers.
+ */
+public class DateDialog extends DialogFragment implements DatePickerDialog.OnDateSetListener {
+
+    public DateDialog(){
+        super();
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        Calendar day = Utilities.fromEpochDay(getArguments().getInt("day"));
+        DatePickerDialog dialog = new DatePickerDialog(getActivity(), this, day.get(Calendar.YEAR),
+                day.get(Calendar.MONTH), day.get(Calendar.DAY_OF_MONTH));
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB){
+            // Limits are in ms since the epoch (UTC), so use midday to stay within the day in any time zone
+            dialog.getDatePicker().setMinDate(getArguments().getInt("first")*86400000L + 43200000L);
+            dialog.getDatePicker().setMaxDate(getArguments().getInt("last")*86400000L + 43200000L);
+        }
+        return dialog;
+    }
+
+    public void onDateSet(DatePicker view, int year, int month, int dayOfMonth) {
+        DaysActivity dv = (DaysActivity) getActivity();
+        dv.goToDay(Utilities.toEpochDay(year, month+1, dayOfMonth));
+    }
+}
@@ -17,21 +17,20 @@ project repository.
 
 package net.willwebberley.gowertides.ui;
 
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Calendar;
 
 import android.widget.*;
 import com.androidplot.xy.XYPlot;
 
 import net.willwebberley.gowertides.R;
 import net.willwebberley.gowertides.classes.*;
-import android.annotation.SuppressLint;
+import net.willwebberley.gowertides.utils.DayCache;
+import net.willwebberley.gowertides.utils.Clock;
+import net.willwebberley.gowertides.utils.IconCache;
 import android.content.SharedPreferences;
 import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
+import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
 import android.text.Html;
 import android.text.Spanned;
@@ -47,17 +46,20 @@ import android.view.animation.RotateAnimation;
 *
 * Each day holds various tidal, weather, sunset/sunrise data and this fragment is responsible for displaying this
 * data and updating it where necessary.
+*
+* The fragment only knows which day it shows (see newInstance()); the Day itself comes from the activity's DayCache,
+* so the fragment can be destroyed and recreated by the pager without keeping its data.
  */
-@SuppressLint("ValidFragment")
-public class DayFragment extends Fragment {
+public class DayFragment extends Fragment implements DayCache.Listener {
+
+    private static final String ARG_EPOCH_DAY = "epoch_day";
 	
 	private DaysActivity dayView; //parent Activity
 	
 	private SharedPreferences prefs; //app preferences
-	private Handler updaterHandler; //handler for updater thread
 	
-	public Day day; //Day represented by this fragment
-	private Calendar rightNow; //Calendar representing the CURRENT time
+	public Day day; //Day represented by this fragment (null until it has been loaded)
+    private int epochDay; //Day represented by this fragment, as days since the epoch
 	private TideGraph tideGraph; //TideGraph object
 	
 	private TextView tideTypeField;
@@ -73,41 +75,84 @@ public class DayFragment extends Fragment {
     private String[] locationNames; //Array holding the names of the possible surf report locations
     private int locationIndex; //Index of currently selected location
 
+    // Text of the sunrise, sunset and sunset timer fields, rewritten in place (see Clock)
+    private final char[] sunriseChars = new char[5], sunsetChars = new char[5], sunsetCountChars = new char[32];
+
+    // Tide and surf cards currently shown (taken from, and given back to, CardPool)
+    private final ArrayList<TideFragment> tideViews = new ArrayList<TideFragment>();
+    private final ArrayList<SurfFragment> surfViews = new ArrayList<SurfFragment>();
+
+    /*
+    * Create a fragment for the day (as days since the epoch).
+     */
+    public static DayFragment newInstance(int epochDay){
+        DayFragment fragment = new DayFragment();
+        Bundle args = new Bundle();
+        args.putInt(ARG_EPOCH_DAY, epochDay);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
     /*
     * Called when the fragment is loaded into the viewpager's memory.
     *
-    * Method responsible for loading the fragment's UI from layout XML and updating the UI components.
-    *
-    * If weather sync is currently ongoing, then show progressbar and hide sync button.
-    * Else, hide progressbar and show sync button.
+    * Method responsible for loading the fragment's UI from layout XML. The UI components are filled in once the Day
+    * has been loaded (see requestDay()), and the layout is hidden until then.
      */
 	@Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {		
+        dayView = (DaysActivity)getActivity();
+        prefs = PreferenceManager.getDefaultSharedPreferences(dayView.getApplicationContext());
+        epochDay = getArguments().getInt(ARG_EPOCH_DAY);
         layoutView =  inflater.inflate(R.layout.fragment_day_info, container, false);
-        updaterHandler = new Handler();
+        layoutView.setVisibility(View.INVISIBLE);
         initComponents();
         showPreferredComponents();
-    	updateUI();
-    	updater();
+        dayView.registerFragment(this);
+        requestDay();
         return layoutView;
     }
 
-    /*
-    * Initialize the fragment with the Day it is to represent, the application preferences and the parent activity.
-     */
-	public DayFragment(Day day, SharedPreferences p, DaysActivity d){
-		this.day = day;
-		prefs = p;
-		dayView = d;
-        locationNames = dayView.locationNames;
-	}
+    @Override
+    public void onDestroyView() {
+        dayView.unregisterFragment(this);
+        // Give the cards back so the next page shown can use them
+        for(int i = 0; i < tideViews.size(); i++){
+            CardPool.recycle(tideViews.get(i));
+        }
+        tideViews.clear();
+        for(int i = 0; i < surfViews.size(); i++){
+            CardPool.recycle(surfViews.get(i));
+        }
+        surfViews.clear();
+        day = null;
+        layoutView = null;
+        super.onDestroyView();
+    }
+
+    public int getEpochDay(){
+        return epochDay;
+    }
 
     /*
-    * Empty constructor also required for a valid fragment.
+    * Ask the activity's DayCache for the Day (again, e.g. after a sync). Does nothing until the activity has finished
+    * starting up, when it calls this for each fragment.
      */
-	public DayFragment(){
-		
-	}
+    public void requestDay(){
+        if(dayView.dayCache != null){
+            dayView.dayCache.load(epochDay, this);
+        }
+    }
+
+    public void onDayLoaded(int epochDay, Day day){
+        if(layoutView == null || epochDay != this.epochDay){
+            return;
+        }
+        this.day = day;
+        locationNames = dayView.locationNames;
+        refreshUI();
+        layoutView.setVisibility(View.VISIBLE);
+    }
 	
 	/******
      * 
@@ -119,11 +164,17 @@ public class DayFragment extends Fragment {
     * (Typically onResume() calls it to make it reload the components which are set to show in preferences.)
      */
     public void refreshUI(){
+        if(day == null){
+            return;
+        }
         showPreferredComponents();
         updateUI();
     }
 
     public void slideSurf(){
+        if(layoutView == null){
+            return;
+        }
         double x = dayView.getApplicationContext().getResources().getDisplayMetrics().density;
         int scrollTo = (int)(250*x);
         ((HorizontalScrollView)layoutView.findViewById(R.id.surfScroller)).smoothScrollTo(scrollTo,0);
@@ -160,16 +211,27 @@ public class DayFragment extends Fragment {
    
     /*
      * Main UI updater. Sets the textfields, tide graph, etc to the selected day.
+     * Only needed when the Day (or the preferences) change; the parts that depend on the current time are then kept
+     * up-to-date by updateTime().
      */
     public void updateUI(){
         //day.getDayInfo();
-    	rightNow = Calendar.getInstance();
         locationIndex = dayView.locationIndex;
+        // Everything below reads the time from the shared clock
+        Clock clock = Clock.getShared().update();
 
        	// Put in try-catch as getting the strings returned null pointers on some devices
     	try{
-    		sunriseText.setText(day.getSunriseString());
-    		sunsetText.setText(day.getSunsetString());
+            if(day.isSunAvailable()){
+                Clock.formatTime(day.getSunrise(), sunriseChars, 0);
+                Clock.formatTime(day.getSunset(), sunsetChars, 0);
+    		    sunriseText.setText(sunriseChars, 0, 5);
+    		    sunsetText.setText(sunsetChars, 0, 5);
+            }
+            else{
+                sunriseText.setText("--:--");
+                sunsetText.setText("--:--");
+            }
     	}
     	catch(Exception e){
     		e.printStackTrace();
@@ -183,18 +245,7 @@ public class DayFragment extends Fragment {
     		e.printStackTrace();
     	}
     	
-    	try{
-	    	// Check if selected day is day. If so, show further information
-	    	if(day.isToday()){
-	    		setSunsetTime();
-	    	}
-	    	else{
-	    		sunsetCountField.setText("");
-	    	}
-    	}
-    	catch(Exception e){
-    		e.printStackTrace();
-    	}
+        updateTableTimes(clock);
 
         ((TextView)layoutView.findViewById(R.id.surf_title)).setText(locationNames[locationIndex]);
 
@@ -260,14 +311,11 @@ public class DayFragment extends Fragment {
         ((TextView)layoutView.findViewById(R.id.weatherWind)).setTextColor(Color.rgb(100, 100, 100));
 		((TextView)layoutView.findViewById(R.id.weatherPrecipitation)).setText(precipitation);
         ((TextView)layoutView.findViewById(R.id.weatherPrecipitation)).setTextColor(Color.rgb(100, 100, 100));
-		String icon = weather.getWeatherIcon();
+		// Icons are decoded once and then shared by every page (see IconCache)
+		IconCache icons = IconCache.getShared(dayView);
 		try {
-			 InputStream ims = getActivity().getAssets().open("icons/"+icon);
-			 Drawable d = Drawable.createFromStream(ims, null);
-			 ((ImageView)layoutView.findViewById(R.id.weatherIcon)).setImageDrawable(d);
-			 InputStream ims2 = getActivity().getAssets().open("icons/arrow.png");
-			 Drawable d2 = Drawable.createFromStream(ims2, null);
-			 ((ImageView)layoutView.findViewById(R.id.weatherWindIcon)).setImageDrawable(d2);
+			 ((ImageView)layoutView.findViewById(R.id.weatherIcon)).setImageDrawable(icons.get(weather.getWeatherIcon()));
+			 ((ImageView)layoutView.findViewById(R.id.weatherWindIcon)).setImageDrawable(icons.get("arrow.png"));
 			 
 			 RotateAnimation rAnim = new RotateAnimation(0, weather.wind_degree, Animation.RELATIVE_TO_SELF, 0.5f, Animation.RELATIVE_TO_SELF, 0.5f);
 			 rAnim.setDuration(500);
@@ -282,22 +330,28 @@ public class DayFragment extends Fragment {
      * Set the surf fields and images for the current day.
      */
     private void setSurfInfo(){
-        double x = dayView.getApplicationContext().getResources().getDisplayMetrics().density;
-
         LinearLayout surf = (LinearLayout)layoutView.findViewById(R.id.surf); // Get the linear layout to add the surf details to
-        // Set some basic layout params (last arg is weight - set to 0.2)
-        LinearLayout.LayoutParams param = new LinearLayout.LayoutParams((int)(x*100),LinearLayout.LayoutParams.MATCH_PARENT);
-        // Calculate the pixel density (in dpi)...
-
-        // ... and use this to set the horizontal margins of the views to be added to the LinearLayout (i.e. 5dpi left and right)
-        param.setMargins((int)(5*x), 0, (int)(5*x), 0);
-
-        // Finally remove all views in there already, before repopulating with the layoutparams specified above.
-        surf.removeAllViews();
         ArrayList<Surf> reports = day.getSurfReports();
+
+        // Keep the cards already shown, giving back spare ones or taking more from the pool (only new cards are laid
+        // out, and only cards whose report has changed are rebound)
+        while(surfViews.size() > reports.size()){
+            CardPool.recycle(surfViews.remove(surfViews.size() - 1));
+        }
+        if(surfViews.size() < reports.size()){
+            double x = dayView.getApplicationContext().getResources().getDisplayMetrics().density;
+            // Set some basic layout params
+            LinearLayout.LayoutParams param = new LinearLayout.LayoutParams((int)(x*100),LinearLayout.LayoutParams.MATCH_PARENT);
+            // ... and use the pixel density to set the horizontal margins of the views to be added to the LinearLayout (i.e. 5dpi left and right)
+            param.setMargins((int)(5*x), 0, (int)(5*x), 0);
+            while(surfViews.size() < reports.size()){
+                SurfFragment si = CardPool.obtainSurf(dayView);
+                surf.addView(si.getView(), param);
+                surfViews.add(si);
+            }
+        }
         for(int i = 0; i < reports.size(); i++){
-            SurfFragment si = new SurfFragment(dayView.getApplicationContext(), reports.get(i));
-            surf.addView(si.getView(), param);
+            surfViews.get(i).bind(reports.get(i));
         }
     }
 
@@ -307,40 +361,76 @@ public class DayFragment extends Fragment {
      * This method responsible for first two columns (since final one depends on current time).
      */
     private void setTideTableInfo(){
-        LinearLayout tides = (LinearLayout)layoutView.findViewById(R.id.tides); // Get the linear layout to add the surf details to
-        LinearLayout.LayoutParams param = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
-        // Calculate the pixel density (in dpi)...
-        double x = dayView.getApplicationContext().getResources().getDisplayMetrics().density;
-        // ... and use this to set the horizontal margins of the views to be added to the LinearLayout (i.e. 5dpi left and right)
-        param.setMargins((int)(5*x), 0, (int)(5*x), 0);
+        LinearLayout tides = (LinearLayout)layoutView.findViewById(R.id.tides); // Get the linear layout to add the tide details to
+        Tides forecasts = day.getTides();
 
-        // Finally remove all views in there already, before repopulating with the layoutparams specified above.
-        tides.removeAllViews();
-        ArrayList<Tide> forecasts = day.getTides();
+        // As for the surf, reuse the cards already shown and only add or remove the difference
+        while(tideViews.size() > forecasts.size()){
+            CardPool.recycle(tideViews.remove(tideViews.size() - 1));
+        }
+        if(tideViews.size() < forecasts.size()){
+            LinearLayout.LayoutParams param = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
+            // Calculate the pixel density (in dpi)...
+            double x = dayView.getApplicationContext().getResources().getDisplayMetrics().density;
+            // ... and use this to set the horizontal margins of the views to be added to the LinearLayout (i.e. 5dpi left and right)
+            param.setMargins((int)(5*x), 0, (int)(5*x), 0);
+            while(tideViews.size() < forecasts.size()){
+                TideFragment ti = CardPool.obtainTide(dayView);
+                tides.addView(ti.getView(), param);
+                tideViews.add(ti);
+            }
+        }
         for(int i = 0; i < forecasts.size(); i++){
-            TideFragment ti = new TideFragment(dayView.getApplicationContext(), forecasts.get(i), day);
-            tides.addView(ti.getView(), param);
+            tideViews.get(i).bind(forecasts, i, day);
         }
     }
 
+    /*
+    * Update only the parts of the UI that depend on the current time: the tide table's time differences, the sunset
+    * timer and the graph's current time line.
+     */
+    public void updateTime(){
+        Clock clock = Clock.getShared().update();
+        updateTableTimes(clock);
+        try{
+            tideGraph.updateTime();
+        }
+        catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+    private void updateTableTimes(Clock clock){
+        for(int i = 0; i < tideViews.size(); i++){
+            tideViews.get(i).updateTime();
+        }
+    	try{
+	    	// Check if selected day is day. If so, show further information
+	    	if(day.isToday(clock) && day.isSunAvailable()){
+	    		setSunsetTime(clock);
+	    	}
+	    	else{
+	    		sunsetCountField.setText("");
+	    	}
+    	}
+    	catch(Exception e){
+    		e.printStackTrace();
+    	}
+    }
+
     
     /*
      * Set data for the sunset timer (again, depends on whether selected day is 'day')
      */
-    private void setSunsetTime(){
-    	Calendar sunsetTime = day.getSunset();
-	    int hoursDiff = sunsetTime.get(Calendar.HOUR_OF_DAY) - rightNow.get(Calendar.HOUR_OF_DAY);
-	    int minsDiff = sunsetTime.get(Calendar.MINUTE) - rightNow.get(Calendar.MINUTE);
-	    if(minsDiff < 0){
-	    	hoursDiff--;
-	    	minsDiff = 60+minsDiff;
-	    }
-	    if(hoursDiff < 0){
+    private void setSunsetTime(Clock clock){
+	    int minsLeft = day.getSunset() - clock.getEpochMinute();
+	    if(minsLeft < 0){
 	    	sunsetCountField.setText("sun has set");
 	    }
-	    if(hoursDiff >= 0){
-	    	if(minsDiff < 10){sunsetCountField.setText(hoursDiff+":0"+minsDiff+" 'til sunset");}
-    	    if(minsDiff >=10){sunsetCountField.setText(hoursDiff+":"+minsDiff+" 'til sunset");}
+	    else{
+	    	int length = Clock.formatDuration(minsLeft, false, sunsetCountChars, 0);
+	    	length += Clock.write(" 'til sunset", sunsetCountChars, length);
+	    	sunsetCountField.setText(sunsetCountChars, 0, length);
 	    }
     }
 
@@ -373,28 +463,14 @@ public class DayFragment extends Fragment {
             System.err.println(e);
         }
     }
-    
-    // Method to update the interface automatically every 60 seconds,
-    // so that timers, etc., are up-to-date.
-    public void updater() {
-        Runnable runnable = new Runnable() {
-          public void run() {
-            for (;;) {
-              try {
-                Thread.sleep(60000);
-              } catch (InterruptedException e) {
-                e.printStackTrace();
-              }
-              updaterHandler.post(new Runnable() {
-                public void run() {
-                    if(!dayView.isPaused){
-                        updateUI();
-                    }
-                }
-              });
-            }
-          }
-        };
-        new Thread(runnable).start();
-      }
+
+    /*
+    * Called by the activity each minute while this is the page shown (see MinuteTicker), so that timers, etc., are
+    * up-to-date. Nothing else changes with the time, so the rest of the UI is left as it is.
+     */
+    public void onMinute(){
+        if(day != null){
+            updateTime();
+        }
+    }
 }
\ No newline at end of file
@@ -23,10 +23,19 @@ import java.util.*;
 import android.net.Uri;
 import net.willwebberley.gowertides.R;
 import net.willwebberley.gowertides.classes.*;
+import net.willwebberley.gowertides.utils.DayCache;
 import net.willwebberley.gowertides.utils.DayDatabase;
+import net.willwebberley.gowertides.utils.MinuteTicker;
+import net.willwebberley.gowertides.utils.PredictedTideSource;
+import net.willwebberley.gowertides.utils.SyncEngine;
+import net.willwebberley.gowertides.utils.SyncScheduler;
+import net.willwebberley.gowertides.utils.TideSource;
+import net.willwebberley.gowertides.utils.TideStore;
+import net.willwebberley.gowertides.utils.TidePredictor;
 import net.willwebberley.gowertides.utils.Utilities;
 import net.willwebberley.gowertides.utils.WeatherDatabase;
 
+import android.annotation.TargetApi;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.AsyncTask;
@@ -45,7 +54,7 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ScrollView;
-import android.support.v4.app.FragmentPagerAdapter;
+import android.support.v4.app.FragmentStatePagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.support.v4.view.ViewPager.OnPageChangeListener;
 
@@ -55,7 +64,8 @@ import android.support.v4.view.ViewPager.OnPageChangeListener;
  * This class maintains the ViewPager of days as well as indicating the currently selected day and handles some button
   * press events.
   *
-  * ViewPager contains a list of fragments, each representing a day.
+  * ViewPager contains a list of fragments, each representing a day. Fragments are created by the pager as they are
+  * needed, and their Days are loaded through a DayCache, so only the days around the current one are kept in memory.
   *
   * This class ia also responsible for network tasks (getting weather), and communicating this to the day fragments.
   *
@@ -68,13 +78,18 @@ public class DaysActivity extends ActionBarActivity {
     private int todayFragmentIndex;
     private int currentFragmentIndex;
 	private Calendar currentDay, firstDay, lastDay;
-	private Vector<DayFragment> fragments;
 	private PagerAdapter mPagerAdapter;
-	public DayDatabase db;
+	public TideSource db;
 	public WeatherDatabase weather_db;
-    public Boolean isPaused, isSyncing;
+    public DayCache dayCache;
+    public Boolean isPaused;
+    public SyncEngine syncEngine;
 
-    private final int DAYS_TO_STORE = 40;
+    // Pages are days from firstEpochDay (days since the epoch) onwards, one for each day of tide data
+    private int firstEpochDay, dayCount = 0;
+
+    // Fragments whose views currently exist (see registerFragment())
+    private final ArrayList<DayFragment> liveFragments = new ArrayList<DayFragment>();
 
     private RelativeLayout buildProgressHolder;
     private ProgressBar buildProgress;
@@ -115,75 +130,93 @@ public class DaysActivity extends ActionBarActivity {
         * Following two variables used by day fragments to check the status of parent activity
          */
         isPaused = false;
-        isSyncing = false;
 
         prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
 
         initComponents();
-        fragments = new Vector<DayFragment>();
-        mPagerAdapter = new PagerAdapter(super.getSupportFragmentManager(), fragments);
+        mPagerAdapter = new PagerAdapter(super.getSupportFragmentManager());
         infoPager.setAdapter(mPagerAdapter);
 
         new StartupTasks().execute("");
     }
 
     /*
-    * Called from StartupTasks thread and is used to populate the viewpager with the day fragments.
+    * Called when StartupTasks finishes and is used to set up the range of days shown by the viewpager.
     *
-    * Creates DAYS_TO_STORE number of day fragments equally distributed around the current day and calculates and stores
-    * the index of the current day of the list.
+    * The pager covers every day from the first to the last in the tide data (and calculates and stores the index of
+    * the current day). Positions map to days arithmetically and no Days are built here: each page's Day is loaded when
+    * its fragment is created (see DayCache), so the size of the range costs nothing.
      */
-    private void populatePager(Calendar newToday, int daysToLoad){
-        fragments.clear();
-        Calendar startDay = (Calendar)newToday.clone();
-        // Change the day to start the pager at (e.g., if 4, will start at day - DAYS_TO_STORE/4 and end at
-        // 3*DAYS_TO_STORE/4.
-        startDay.add(Calendar.DATE,-(daysToLoad/4));
-        for(int i =0; i < DAYS_TO_STORE; i++){
-            Calendar newDay = (Calendar)startDay.clone();
-            newDay.add(Calendar.DATE,i);
-
-            Day day = Utilities.createDay(db,weather_db, newDay, locationKeys[locationIndex]);
-            DayFragment dayFrag = new DayFragment(day, prefs, this);
-
-            if (currentDay.getTimeInMillis() == newDay.getTimeInMillis()){
-                todayFragmentIndex = i;
-            }
-            fragments.add(dayFrag);
-            if (newDay.getTimeInMillis() == lastDay.getTimeInMillis()){
-                break;
-            }
+    private void populatePager(Calendar newToday){
+        int today = Utilities.toEpochDay(newToday);
+        if(firstDay != null && lastDay != null){
+            firstEpochDay = db.getFirstEpochDay();
+            dayCount = Math.max(1, db.getLastEpochDay() - firstEpochDay + 1);
         }
+        else{
+            // Tide data couldn't be opened, so just show today
+            firstEpochDay = today;
+            dayCount = 1;
+        }
+        todayFragmentIndex = getPosition(today);
+    }
+
+    /*
+    * Position of the page for the day (as days since the epoch), kept within the pager's range.
+     */
+    public int getPosition(int epochDay){
+        return Math.max(0, Math.min(dayCount-1, epochDay - firstEpochDay));
+    }
+
+    /*
+    * Days since the epoch shown by the page at the position.
+     */
+    public int getEpochDay(int position){
+        return firstEpochDay + position;
     }
 
     /*
     * Inner class to act as the PagerAdapter for the viewpager.
     *
-    * Implements various methods to assist with handling the pager.
+    * Pages map to days by position (see getEpochDay()). Pages the user has moved away from are destroyed (keeping
+    * only their saved state), so the number of fragments doesn't grow with the number of days swiped through.
      */
-    class PagerAdapter extends FragmentPagerAdapter {
-        private List<DayFragment> fragments;
-				private boolean doNotifyDataSetChangedOnce = false;
-        public PagerAdapter(android.support.v4.app.FragmentManager fm, List<DayFragment> fragments) {
+    class PagerAdapter extends FragmentStatePagerAdapter {
+        public PagerAdapter(android.support.v4.app.FragmentManager fm) {
             super(fm);
-            this.fragments = fragments;
         }
         @Override
         public DayFragment getItem(int position) {
-            return this.fragments.get(position);
+            return DayFragment.newInstance(getEpochDay(position));
         }
         @Override
         public int getCount() {
-					if (doNotifyDataSetChangedOnce) {
-						doNotifyDataSetChangedOnce = false;
-						notifyDataSetChanged();
-					}
-            return this.fragments.size();
+            return dayCount;
         }
-        @Override
-        public int getItemPosition(Object object) {
-            return POSITION_NONE;
+    }
+
+    /*
+    * Fragments register while their views exist, so the activity can update the pages that are showing.
+     */
+    public void registerFragment(DayFragment fragment){
+        if(!liveFragments.contains(fragment)){
+            liveFragments.add(fragment);
+        }
+    }
+    public void unregisterFragment(DayFragment fragment){
+        liveFragments.remove(fragment);
+    }
+
+    /*
+    * The live fragment for the page at the position, or null if the pager hasn't created it.
+     */
+    private DayFragment getFragment(int position){
+        for(DayFragment fragment : liveFragments){
+            if(fragment.getEpochDay() == getEpochDay(position)){
+                return fragment;
+            }
         }
+        return null;
     }
 
     /*
@@ -222,6 +255,7 @@ public class DaysActivity extends ActionBarActivity {
     public void onResume(){
     	super.onResume();
         isPaused = false;
+        MinuteTicker.getInstance().start(minuteListener);
         if(pauseCounter > 0){
             try{
                 fragmentsRefreshUI();
@@ -237,6 +271,56 @@ public class DaysActivity extends ActionBarActivity {
     public void onPause() {
         super.onPause();
         isPaused = true;
+        MinuteTicker.getInstance().stop(minuteListener);
+    }
+
+    /*
+     * Each minute (while the activity isn't paused), update the timers etc. of the page being shown. Pages off screen
+     * are brought up to date when they are selected.
+     */
+    private final MinuteTicker.Listener minuteListener = new MinuteTicker.Listener() {
+        public void onMinute() {
+            DayFragment shown = getFragment(infoPager.getCurrentItem());
+            if(shown != null){
+                shown.onMinute();
+            }
+        }
+    };
+
+    /*
+     * Stop listening for any sync in progress (so it can't hold on to the activity or report to it once it is gone).
+     * The sync is only abandoned if the activity is really finishing: when it is just being recreated (e.g. the device
+     * was rotated) the sync carries on, and the new activity waits for it on startup.
+     */
+    @Override
+    public void onDestroy() {
+        if(syncEngine != null){
+            if(isBeingRecreated()){
+                syncEngine.removeListener(syncListener);
+            }
+            else{
+                syncEngine.cancel(syncListener);
+            }
+        }
+        if(dayCache != null){
+            dayCache.close();
+        }
+        super.onDestroy();
+    }
+
+    /*
+     * True if the activity is being destroyed only to be created again (before Honeycomb, true unless finishing).
+     */
+    private boolean isBeingRecreated(){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB){
+            return isChangingConfigurationsHoneycomb();
+        }
+        return !isFinishing();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean isChangingConfigurationsHoneycomb(){
+        return isChangingConfigurations();
     }
 
     /*
@@ -256,8 +340,11 @@ public class DaysActivity extends ActionBarActivity {
             case R.id.menu_revert:
             	toDay();
                 return true;
+            case R.id.menu_date:
+                pickDate();
+                return true;
             case R.id.sync:
-                refresh();
+                refresh(true);
                 return true;
             case R.id.menu_location:
                 editLocation();
@@ -302,7 +389,7 @@ public class DaysActivity extends ActionBarActivity {
      */
     public void toDay(){
     	try{
-            infoPager.setCurrentItem(todayFragmentIndex, true);
+            goToDay(getEpochDay(todayFragmentIndex));
     	}
     	catch(Exception e){
     		System.err.println("Could not load day");
@@ -310,6 +397,32 @@ public class DaysActivity extends ActionBarActivity {
     	}
     }
 
+    /*
+    * Move the pager to the day (as days since the epoch). The adapter is left as it is: only the new page and its
+    * neighbours are created, so a jump of months costs the same as a swipe. Only moves to an adjacent page are animated
+    * (animating a long jump would only show a blur of empty pages).
+     */
+    public void goToDay(int epochDay){
+        int position = getPosition(epochDay);
+        infoPager.setCurrentItem(position, Math.abs(position - infoPager.getCurrentItem()) <= 1);
+    }
+
+    /*
+    * Open the date picker (see DateDialog) at the day being shown.
+     */
+    public void pickDate(){
+        if(dayCount == 0){
+            return;
+        }
+        DateDialog dd = new DateDialog();
+        Bundle args = new Bundle();
+        args.putInt("day", getEpochDay(infoPager.getCurrentItem()));
+        args.putInt("first", getEpochDay(0));
+        args.putInt("last", getEpochDay(dayCount-1));
+        dd.setArguments(args);
+        dd.show(getSupportFragmentManager(), "");
+    }
+
     /*
     * Listen for clicks on MSW logo, and open up their site if clicked.
      */
@@ -334,16 +447,17 @@ public class DaysActivity extends ActionBarActivity {
     }
 
     /*
-    * If network available, sync surf and weather data
+    * If network available, sync surf and weather data (for every location, so switching between them needs no sync).
+    * Locations whose data is still fresh are skipped unless 'force' is set (as it is for the sync button).
      */
-    public void refresh(){
-        if(isSyncing){
+    public void refresh(boolean force){
+        // (a refresh during a sync just waits for that sync, see SyncEngine)
+        if(syncEngine == null){
             return;
         }
         getSupportActionBar().getCustomView().setVisibility(true ? View.VISIBLE : View.GONE);
-        isSyncing = true;
         if(this.isOnline()){
-            new Utilities.DataGetter(this, locationKeys[locationIndex], weather_db).execute();
+            syncEngine.sync(locationKeys, force, syncListener);
         }
         else{
             Toast.makeText(getApplicationContext(), "Unable to sync: network unavailable.", Toast.LENGTH_LONG).show();
@@ -359,9 +473,14 @@ public class DaysActivity extends ActionBarActivity {
         if(!result){
             Toast.makeText(getApplicationContext(), "Sync error: Please try again later.", Toast.LENGTH_LONG).show();
         }
-        isSyncing = false;
     }
 
+    private final SyncEngine.Listener syncListener = new SyncEngine.Listener() {
+        public void onSyncFinished(boolean success) {
+            notifySyncFinished(success);
+        }
+    };
+
     /*
      * Check for network connection. If Internet connection return true. Else, return false.
      */
@@ -377,7 +496,11 @@ public class DaysActivity extends ActionBarActivity {
     public void updateLocation(int index){
         locationIndex = index;
         fragmentsRefreshUI();
-        refresh();
+        // Locations are synced together, so this only fetches anything if one isn't fresh (the engine checks which are
+        // stale on its own thread)
+        if(prefs.getBoolean("sync_enabled", true)){
+            refresh(false);
+        }
 
         // Update prefs last in case there's an error with the location (as this would prevent app
         // from opening again!
@@ -387,21 +510,16 @@ public class DaysActivity extends ActionBarActivity {
     }
 
     /*
-    * Update Fragments in ViewPager. Will only update the three Fragments currently in memory.
-    *
-    * These three methods execute different methods within the loaded pages.
+    * Update Fragments in ViewPager. Cached Days are dropped (as the data or location may have changed) and the
+    * Fragments currently in memory load theirs again.
      */
     private void fragmentsRefreshUI(){
-        Utilities.reprocessDay(db, weather_db, ((DayFragment)fragments.get(currentFragmentIndex)).day, locationKeys[locationIndex]);
-        ((DayFragment)fragments.get(currentFragmentIndex)).refreshUI();
-        try{
-            Utilities.reprocessDay(db, weather_db, ((DayFragment)fragments.get(currentFragmentIndex-1)).day, locationKeys[locationIndex]);
-            ((DayFragment)fragments.get(currentFragmentIndex-1)).refreshUI();
-            Utilities.reprocessDay(db, weather_db, ((DayFragment)fragments.get(currentFragmentIndex+1)).day, locationKeys[locationIndex]);
-            ((DayFragment)fragments.get(currentFragmentIndex+1)).refreshUI();
+        if(dayCache == null){
+            return;
         }
-        catch(Exception e){
-            System.err.println("At end of viewpager.");
+        dayCache.clear(locationKeys[locationIndex]);
+        for(DayFragment fragment : liveFragments){
+            fragment.requestDay();
         }
     }
 
@@ -429,6 +547,9 @@ public class DaysActivity extends ActionBarActivity {
     * On finish, onPostExecute() is called.
      */
     private class StartupTasks extends AsyncTask<String, Integer, Boolean>{
+        // Whether any location needs syncing (checked here as it reads the database)
+        private boolean stale = false;
+
         @Override
         protected Boolean doInBackground(String... arg0) {
             locationNames = getResources().getStringArray(R.array.locationDisplay);
@@ -437,8 +558,23 @@ public class DaysActivity extends ActionBarActivity {
 
             System.out.println("Initializing databases...");
             try{
-                db = new DayDatabase(getApplicationContext());
-                weather_db = new WeatherDatabase(getApplicationContext());
+                // Use the memory-mapped tide store if it has been shipped, otherwise the SQLite asset
+                db = TideStore.open(getApplicationContext());
+                if(db == null){
+                    db = new DayDatabase(getApplicationContext());
+                }
+                // Predict tides past the end of the table if the fitted constants have been shipped
+                try{
+                    db = new PredictedTideSource(db, TidePredictor.load(getAssets().open(TidePredictor.ASSET_NAME)));
+                }
+                catch(Exception e){
+                    System.err.println("Tide predictions unavailable: "+e);
+                }
+                weather_db = WeatherDatabase.getInstance(getApplicationContext());
+                dayCache = new DayCache(db, weather_db, locationKeys[locationIndex]);
+                syncEngine = SyncEngine.getInstance(getApplicationContext());
+                SyncScheduler.schedule(getApplicationContext());
+                stale = SyncScheduler.isStale(getApplicationContext(), weather_db);
                 firstDay = db.getFirstDay();
                 lastDay = db.getLastDay();
             }
@@ -449,8 +585,13 @@ public class DaysActivity extends ActionBarActivity {
             currentDay = Calendar.getInstance();
             //currentDay = setDayForTesting("01/01/2031");
 
-            System.out.println("Populating viewpager...");
-            populatePager(currentDay, DAYS_TO_STORE);
+            // Only today's Day is built now, so it can be shown straight away; the rest load as they're needed
+            try{
+                dayCache.loadNow(Utilities.toEpochDay(currentDay));
+            }
+            catch(Exception e){
+                System.err.println("Could not load today: "+e);
+            }
 
             System.out.println("Setting listener...");
             infoPager.setOnPageChangeListener(new OnPageChangeListener() {
@@ -458,9 +599,12 @@ public class DaysActivity extends ActionBarActivity {
                 public void onPageScrolled(int position, float positionOffset, int positionOffsetPixels) {}
                 public void onPageSelected(int position) {
                     currentFragmentIndex = position;
-                    DayFragment myNow = mPagerAdapter.getItem(position);
-                    myNow.slideSurf();
-                    getSupportActionBar().setSubtitle(myNow.day.toString());
+                    DayFragment myNow = getFragment(position);
+                    if(myNow != null){
+                        myNow.onMinute();
+                        myNow.slideSurf();
+                    }
+                    getSupportActionBar().setSubtitle(Day.formatDate(Utilities.fromEpochDay(getEpochDay(position))));
                     if(position == todayFragmentIndex){
                         menu.findItem(R.id.menu_revert).setVisible(false);
                     }
@@ -469,32 +613,27 @@ public class DaysActivity extends ActionBarActivity {
                     }
                 }
             });
-
-            /*
-            * Set each Day's yesterday Day and tomorrow Day (if available)
-             */
-            for(int i=0; i < fragments.size(); i++){
-                if(i > 0){
-                    Day yesterday = fragments.get(i-1).day;
-                    fragments.get(i).day.setYesterday(yesterday);
-                }
-                if(i < fragments.size()-1){
-                    Day tomorrow = fragments.get(i+1).day;
-                    fragments.get(i).day.setTomorrow(tomorrow);
-                }
-            }
             return true;
         }
         protected void onPostExecute(Boolean result) {
+            // (the page count changes here, on the UI thread, along with notifying the pager)
+            System.out.println("Populating viewpager...");
+            populatePager(currentDay);
             infoPager.getAdapter().notifyDataSetChanged();
             infoPager.setCurrentItem(todayFragmentIndex); // set initial pager position to current day
+            // Fragments restored by the pager before the cache existed can now load their Days
+            for(DayFragment fragment : new ArrayList<DayFragment>(liveFragments)){
+                fragment.requestDay();
+            }
 
             /*
-            * If preference is to sync weather on startup, then sync weather task now.
+            * Data is normally kept fresh by the background sync (see SyncScheduler), so only sync now if it is stale, or
+            * join a background sync that is already running so the UI updates when it finishes.
             * (this is done after initialising day fragments due to UI updates on the fragments during this task.)
              */
-            if(prefs.getBoolean("sync_enabled", true)) {
-                refresh();
+            if(prefs.getBoolean("sync_enabled", true) && syncEngine != null
+                    && (syncEngine.isSyncing() || stale)) {
+                refresh(false);
             }
 
             System.out.println("Final bits...");
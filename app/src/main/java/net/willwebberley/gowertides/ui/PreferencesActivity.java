@@ -21,6 +21,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.ListPreference;
+import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.app.Activity;
@@ -38,6 +39,8 @@ import android.widget.LinearLayout;
 import android.widget.ListView;
 
 import net.willwebberley.gowertides.R;
+import net.willwebberley.gowertides.utils.SyncEngine;
+import net.willwebberley.gowertides.utils.SyncScheduler;
 
 public class PreferencesActivity extends PreferenceActivity implements OnSharedPreferenceChangeListener{
 
@@ -86,6 +89,10 @@ public class PreferencesActivity extends PreferenceActivity implements OnSharedP
 	    }
 
 	public void onSharedPreferenceChanged(SharedPreferences arg0, String arg1) {
+		if(arg1.equals("sync_enabled")){
+			SyncScheduler.schedule(getApplicationContext());
+		}
+
 		CheckBoxPreference timeBox = (CheckBoxPreference)getPreferenceScreen().findPreference("show_graph_time");
 		CheckBoxPreference sunriseSunsetBox = (CheckBoxPreference)getPreferenceScreen().findPreference("show_graph_sunrise_sunset");
 		ListPreference metric = (ListPreference)getPreferenceScreen().findPreference("unitFormat");
@@ -113,6 +120,12 @@ public class PreferencesActivity extends PreferenceActivity implements OnSharedP
 		else{
 			timerBox.setEnabled(true);
 		}
+
+		// How much downloading the freshness check has saved (updated as syncs run)
+		SyncEngine engine = SyncEngine.getInstance(getApplicationContext());
+		Preference stats = getPreferenceScreen().findPreference("sync_stats");
+		stats.setSummary(engine.getFetchCount()+" location downloads made, "+engine.getSkipCount()+
+				" skipped as the data was still fresh.");
 				
 	}
 }
@@ -19,65 +19,88 @@ package net.willwebberley.gowertides.ui;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.text.Html;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.RotateAnimation;
 import android.widget.ImageView;
-import android.widget.RelativeLayout;
 import android.widget.TextView;
 import net.willwebberley.gowertides.R;
-import net.willwebberley.gowertides.classes.Day;
 import net.willwebberley.gowertides.classes.Surf;
 
 /*
- Class to represent the surf information views in the horizontal scroll bar
+ Class to represent the surf information views in the horizontal scroll bar.
+
+ The card's views are inflated once and then rebound to whichever report it is showing (cards are shared between
+ days through CardPool).
  */
-public class SurfFragment extends RelativeLayout {
+public class SurfFragment {
 
     private View layoutView;
-    private Surf surf;
+    private TextView timeField, surfSize, swellDirection, swellPeriod, swellHeight;
+    private ImageView swellDirectionIcon;
+    private Surf surf; // report currently shown (null if none)
 
-    public SurfFragment(Context context, Surf s){
-        super(context);
+    public SurfFragment(Context context){
         LayoutInflater inflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         layoutView = inflater.inflate(R.layout.surf_forecast, null);
+        timeField = (TextView)layoutView.findViewById(R.id.timeField);
+        surfSize = (TextView)layoutView.findViewById(R.id.surfSize);
+        swellDirection = (TextView)layoutView.findViewById(R.id.swellDirection);
+        swellDirectionIcon = (ImageView)layoutView.findViewById(R.id.swellDirectionIcon);
+        swellPeriod = (TextView)layoutView.findViewById(R.id.swellPeriod);
+        swellHeight = (TextView)layoutView.findViewById(R.id.swellHeight);
 
-        surf = s;
-        updateUI();
+        // Format the title textviews
+        timeField.setTextColor(Color.rgb(0, 150, 220));
+        surfSize.setTextColor(Color.rgb(70, 80, 70));
     }
 
     public View getView(){
         return layoutView;
     }
 
+    /*
+    * Show the report. Does nothing if it is already being shown.
+     */
+    public void bind(Surf s){
+        if(s == surf){
+            return;
+        }
+        surf = s;
+        updateUI();
+    }
+
+    /*
+    * Forget the report shown (called when the card goes back to the pool).
+     */
+    public void unbind(){
+        surf = null;
+        swellDirectionIcon.clearAnimation();
+    }
+
     private void updateUI(){
-        // Format the title textviews
-        ((TextView)layoutView.findViewById(R.id.timeField)).setTextColor(Color.rgb(0, 150, 220));
-        ((TextView)layoutView.findViewById(R.id.timeField)).setText(surf.hour+":00");
+        timeField.setText(surf.hour+":00");
 
         // Update fields with information
 
         // Max and min surf heights
-        if(surf.max_surf-surf.min_surf == 0){((TextView)layoutView.findViewById(R.id.surfSize)).setText(Html.fromHtml("<b>" + surf.max_surf + "</b> <i>ft</i>"));}
-        else{((TextView)layoutView.findViewById(R.id.surfSize)).setText(Html.fromHtml("<b>"+surf.min_surf+"-"+surf.max_surf+"</b> <i>ft</i>"));}
-        ((TextView)layoutView.findViewById(R.id.surfSize)).setTextColor(Color.rgb(70, 80, 70));
+        if(surf.max_surf-surf.min_surf == 0){surfSize.setText(Html.fromHtml("<b>" + surf.max_surf + "</b> <i>ft</i>"));}
+        else{surfSize.setText(Html.fromHtml("<b>"+surf.min_surf+"-"+surf.max_surf+"</b> <i>ft</i>"));}
 
         // Swell direction
-        ((TextView)layoutView.findViewById(R.id.swellDirection)).setText(Html.fromHtml("<b>"+surf.swell_direction+"</b>"));
+        swellDirection.setText(Html.fromHtml("<b>"+surf.swell_direction+"</b>"));
         RotateAnimation rAnim = new RotateAnimation(0, 180+(float)surf.swell_angle, Animation.RELATIVE_TO_SELF, 0.5f, Animation.RELATIVE_TO_SELF, 0.5f);
         rAnim.setDuration(20);
         rAnim.setFillEnabled(true);
         rAnim.setFillAfter(true);
-        ((ImageView)layoutView.findViewById(R.id.swellDirectionIcon)).startAnimation(rAnim);
+        swellDirectionIcon.startAnimation(rAnim);
 
         // Swell period
-        ((TextView)layoutView.findViewById(R.id.swellPeriod)).setText(Html.fromHtml("<b>"+surf.swell_period+"</b> <i>s</i>"));
+        swellPeriod.setText(Html.fromHtml("<b>"+surf.swell_period+"</b> <i>s</i>"));
 
         // Swell height
-        ((TextView)layoutView.findViewById(R.id.swellHeight)).setText(Html.fromHtml("<b>"+surf.swell_height+"</b> <i>ft</i>"));
+        swellHeight.setText(Html.fromHtml("<b>"+surf.swell_height+"</b> <i>ft</i>"));
     }
 }
@@ -19,73 +19,109 @@ package net.willwebberley.gowertides.ui;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.text.Html;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.RelativeLayout;
 import android.widget.TextView;
 import net.willwebberley.gowertides.R;
 import net.willwebberley.gowertides.classes.Day;
-import net.willwebberley.gowertides.classes.Tide;
-
-import java.util.Calendar;
+import net.willwebberley.gowertides.classes.Tides;
+import net.willwebberley.gowertides.utils.Clock;
 
 /*
- Class to represent the tidal information views in the horizontal scroll bar
+ Class to represent the tidal information views in the horizontal scroll bar.
+
+ The card's views are inflated once and then rebound to whichever tide it is showing (cards are shared between days
+ through CardPool).
  */
-public class TideFragment extends RelativeLayout {
+public class TideFragment {
 
     private View layoutView;
-    private Tide tide;
+    private TextView timeText, timeDiffText, typeText;
+    private ImageView tideIcon;
+    private Tides tides; // tides of the day shown (null if none)
+    private int index; // of the tide shown, within tides
     private Day day;
+    private final char[] timeDifference = new char[8]; // text of the time_diff view, rewritten in place
 
-    public TideFragment(Context context, Tide t, Day d){
-        super(context);
+    public TideFragment(Context context){
         LayoutInflater inflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         layoutView = inflater.inflate(R.layout.tide_table, null);
+        timeText = (TextView)layoutView.findViewById(R.id.time);
+        timeDiffText = (TextView)layoutView.findViewById(R.id.time_diff);
+        typeText = (TextView)layoutView.findViewById(R.id.type);
+        tideIcon = (ImageView)layoutView.findViewById(R.id.tide_icon);
 
-        tide = t;
-        day = d;
-        updateUI();
+        timeText.setTextColor(Color.rgb(50, 50, 50));
     }
 
     public View getView(){
         return layoutView;
     }
 
+    /*
+    * Show tide i of t (a tide of the Day d), including the time to it. The parts that don't depend on the time are
+    * left alone if the tide is already being shown.
+     */
+    public void bind(Tides t, int i, Day d){
+        day = d;
+        if(t != tides || i != index){
+            tides = t;
+            index = i;
+            updateUI();
+        }
+        updateTime();
+    }
+
+    /*
+    * Forget the tide shown (called when the card goes back to the pool).
+     */
+    public void unbind(){
+        tides = null;
+        day = null;
+    }
+
+    /*
+    * Set the parts of the view that don't depend on the current time.
+     */
     private void updateUI(){
-        ((TextView)layoutView.findViewById(R.id.time)).setTextColor(Color.rgb(50, 50, 50));
-        ((TextView)layoutView.findViewById(R.id.time)).setText(tide.getTimeString());
+        timeText.setText(tides.getTimeString(index));
+
+        if(tides.getType(index) == Tides.LOW){
+            tideIcon.setImageResource(R.drawable.low);
+            typeText.setText("LOW");
+        }
+        if(tides.getType(index) == Tides.HIGH){
+            tideIcon.setImageResource(R.drawable.high);
+            typeText.setText("HIGH");
+        }
+    }
 
-        if(day.isToday()){
-            ((TextView)layoutView.findViewById(R.id.time_diff)).setVisibility(View.VISIBLE);
-            String timeDifference = tide.getTimeDifference(Calendar.getInstance());
+    /*
+    * Set the time to (or since) the tide from the shared clock. Only shown if the day is today.
+     */
+    public void updateTime(){
+        Clock clock = Clock.getShared();
+        if(day.isToday(clock)){
+            timeDiffText.setVisibility(View.VISIBLE);
+            timeDifference[0] = '(';
+            int length = 1 + tides.formatTimeDifference(index, clock.getEpochMinute(), timeDifference, 1);
+            timeDifference[length++] = ')';
             boolean negative = false;
-            if (timeDifference.startsWith("-")){
+            if (timeDifference[1] == '-'){
                 negative = true;
             }
 
             if (negative){
-                ((TextView)layoutView.findViewById(R.id.time_diff)).setTextColor(Color.rgb(168,0,0));
+                timeDiffText.setTextColor(Color.rgb(168,0,0));
             }
             if(!negative){
-                ((TextView)layoutView.findViewById(R.id.time_diff)).setTextColor(Color.rgb(0,168,0));
+                timeDiffText.setTextColor(Color.rgb(0,168,0));
             }
-            ((TextView)layoutView.findViewById(R.id.time_diff)).setText("("+timeDifference+")");
+            timeDiffText.setText(timeDifference, 0, length);
         }
         else{
-            ((TextView)layoutView.findViewById(R.id.time_diff)).setVisibility(View.GONE);
-        }
-
-        if(tide.getType() == tide.LOW){
-            ((ImageView)layoutView.findViewById(R.id.tide_icon)).setImageResource(R.drawable.low);
-            ((TextView)layoutView.findViewById(R.id.type)).setText("LOW");
-        }
-        if(tide.getType() == tide.HIGH){
-            ((ImageView)layoutView.findViewById(R.id.tide_icon)).setImageResource(R.drawable.high);
-            ((TextView)layoutView.findViewById(R.id.type)).setText("HIGH");
+            timeDiffText.setVisibility(View.GONE);
         }
     }
 }
@@ -0,0 +1,173 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.TimeZone;
+
+/*
+* The current time, read once per update() and held as primitives: minutes since the epoch, and today (days since the
+* epoch) and the minute of the day in local time. Also formats times into caller-owned char buffers, so that once the
+* buffers exist the per-minute UI refresh allocates nothing (see TextView.setText(char[], int, int)).
+*
+* The local offset is looked up (and the default time zone re-read) only when an update passes the zone's next
+* transition, which is found when the offset is looked up (at most a day ahead, as TimeZone has no way to ask for it
+* directly). A change of the device's time zone is picked up through resetZone() (see TimeZoneReceiver).
+*
+* The shared clock (see getShared()) is only used on the main thread. DayFragment updates it at the start of each
+* refresh, and everything drawn in that refresh reads the same time from it.
+ */
+public final class Clock {
+
+    private static final Clock shared = new Clock();
+
+    public static Clock getShared(){
+        return shared;
+    }
+
+    private int epochMinute;
+    private int epochDay;
+    private int minuteOfDay;
+
+    // How far ahead to look for a time zone transition (minutes)
+    private static final int TRANSITION_HORIZON = 1440;
+
+    private int localOffset; // minutes
+    private int offsetValidFrom = Integer.MAX_VALUE, offsetValidUntil = Integer.MIN_VALUE; // epoch minutes
+
+    public Clock(){
+        update();
+    }
+
+    /*
+    * Read the time. Returns this clock.
+     */
+    public Clock update(){
+        return set(System.currentTimeMillis());
+    }
+
+    public Clock set(long millis){
+        epochMinute = (int)(millis / 60000);
+        if(epochMinute >= offsetValidUntil || epochMinute < offsetValidFrom){
+            TimeZone zone = TimeZone.getDefault();
+            localOffset = zone.getOffset(millis) / 60000;
+            offsetValidFrom = epochMinute;
+            offsetValidUntil = nextTransition(zone, epochMinute, localOffset);
+        }
+        int local = epochMinute + localOffset;
+        epochDay = floorDiv(local, 1440);
+        minuteOfDay = local - epochDay*1440;
+        return this;
+    }
+
+    /*
+    * Look the local offset up again on the next update (for when the device's time zone has changed).
+     */
+    public void resetZone(){
+        offsetValidFrom = Integer.MAX_VALUE;
+        offsetValidUntil = Integer.MIN_VALUE;
+    }
+
+    /*
+    * The first minute after 'from' at which the zone's offset is no longer 'offset' (minutes), or TRANSITION_HORIZON
+    * minutes ahead if it doesn't change before then. Found by bisection, so takes a dozen lookups at most.
+     */
+    private static int nextTransition(TimeZone zone, int from, int offset){
+        int before = from, after = from + TRANSITION_HORIZON;
+        if(zone.getOffset(after*60000L) / 60000 == offset){
+            return after;
+        }
+        while(after - before > 1){
+            int middle = before + (after - before)/2;
+            if(zone.getOffset(middle*60000L) / 60000 == offset){
+                before = middle;
+            }
+            else{
+                after = middle;
+            }
+        }
+        return after;
+    }
+
+    public int getEpochMinute(){
+        return epochMinute;
+    }
+    /*
+    * Today, as days since the epoch (local time).
+     */
+    public int getEpochDay(){
+        return epochDay;
+    }
+    /*
+    * Minutes since midnight (local time).
+     */
+    public int getMinuteOfDay(){
+        return minuteOfDay;
+    }
+
+    /*
+    * Write a time (minutes since the epoch) as HH:mm in UK time (see Utilities.tideMinuteOfDay()) into the buffer at
+    * the offset. Always writes 5 chars.
+     */
+    public static void formatTime(int epochMinute, char[] buffer, int offset){
+        int minutes = floorMod(Utilities.tideMinuteOfDay(0, epochMinute), 1440);
+        writeTwoDigits(minutes / 60, buffer, offset);
+        buffer[offset+2] = ':';
+        writeTwoDigits(minutes % 60, buffer, offset+3);
+    }
+
+    /*
+    * Write a number of minutes as H:mm (hours within the day, with a leading '+' or '-' if 'signed') into the buffer
+    * at the offset. Returns the number of chars written (at most 6).
+     */
+    public static int formatDuration(int minutes, boolean signed, char[] buffer, int offset){
+        int start = offset;
+        if(signed){
+            buffer[offset++] = minutes < 0 ? '-' : '+';
+        }
+        minutes = Math.abs(minutes);
+        int hours = (minutes / 60) % 24;
+        if(hours >= 10){
+            buffer[offset++] = (char)('0' + hours/10);
+        }
+        buffer[offset++] = (char)('0' + hours%10);
+        buffer[offset++] = ':';
+        writeTwoDigits(minutes % 60, buffer, offset);
+        return offset + 2 - start;
+    }
+
+    /*
+    * Copy the chars of a string into the buffer at the offset. Returns the number of chars written.
+     */
+    public static int write(String text, char[] buffer, int offset){
+        text.getChars(0, text.length(), buffer, offset);
+        return text.length();
+    }
+
+    private static void writeTwoDigits(int value, char[] buffer, int offset){
+        buffer[offset] = (char)('0' + value/10);
+        buffer[offset+1] = (char)('0' + value%10);
+    }
+
+    private static int floorDiv(int a, int b){
+        return a >= 0 ? a / b : -((-a + b - 1) / b);
+    }
+
+    private static int floorMod(int a, int b){
+        return a - floorDiv(a, b)*b;
+    }
+}
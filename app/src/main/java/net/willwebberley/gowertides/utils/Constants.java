@@ -11,14 +11,38 @@ public class Constants {
 
     private static SimpleDateFormat dayDateFormatter = new SimpleDateFormat("h:m a", Locale.US);
     private static String dataURL = "http://tides.flyingsparx.net/fetch/both/";
+    private static TimeZone tideTimeZone = TimeZone.getTimeZone("Europe/London");
+    private static String defaultHistoryDays = "14";
+    private static String defaultSyncTtl = "3";
 
     public static SimpleDateFormat getDateFormat(){
         dayDateFormatter.setTimeZone(TimeZone.getDefault());
         return dayDateFormatter;
     }
 
+    /*
+    * Time zone the tide tables are published in (compiled tide assets store times in UTC).
+     */
+    public static TimeZone getTideTimeZone(){
+        return tideTimeZone;
+    }
+
     public static String getDataURL(){
         return dataURL;
     }
 
+    /*
+    * Days of past surf and weather kept in the database (value of the "history_days" preference if it isn't set).
+     */
+    public static String getDefaultHistoryDays(){
+        return defaultHistoryDays;
+    }
+
+    /*
+    * Hours synced data stays fresh for (value of the "sync_ttl" preference if it isn't set).
+     */
+    public static String getDefaultSyncTtl(){
+        return defaultSyncTtl;
+    }
+
 }
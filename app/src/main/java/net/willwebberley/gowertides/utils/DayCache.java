@@ -0,0 +1,163 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.SparseArray;
+
+import net.willwebberley.gowertides.classes.Day;
+import net.willwebberley.gowertides.classes.Tides;
+
+/*
+* Bounded cache of Days, keyed by days since the epoch, so that the pager only builds the Days it is showing.
+*
+* Days are built on a background thread (one at a time, in the order they are asked for) and handed to listeners on the
+* main thread. Once MAX_DAYS are held the least recently used is dropped, so memory use stays the same however far the
+* pager is swiped.
+ */
+public class DayCache {
+
+    // The page shown, the pages either side that the pager keeps ready, and a few recently visited ones
+    public static final int MAX_DAYS = 7;
+
+    public interface Listener {
+        public void onDayLoaded(int epochDay, Day day);
+    }
+
+    private final TideSource tides;
+    private final WeatherDatabase weather;
+    private final LruCache<Integer, Day> days = new LruCache<Integer, Day>(MAX_DAYS);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Only used on the main thread
+    private final SparseArray<ArrayList<Listener>> pending = new SparseArray<ArrayList<Listener>>();
+    private int location;
+    private int generation = 0; // incremented by clear(), so that Days loaded before it aren't cached
+
+    public DayCache(TideSource tides, WeatherDatabase weather, int location){
+        this.tides = tides;
+        this.weather = weather;
+        this.location = location;
+    }
+
+    /*
+    * The Day, if it is cached, or null.
+     */
+    public Day get(int epochDay){
+        return days.get(epochDay);
+    }
+
+    /*
+    * Call the listener with the Day, building it in the background first if it isn't cached (in which case the listener
+    * is called later). A Day that is already being built isn't built twice. Must be called on the main thread.
+     */
+    public void load(final int epochDay, Listener listener){
+        Day day = days.get(epochDay);
+        if(day != null){
+            listener.onDayLoaded(epochDay, day);
+            return;
+        }
+        ArrayList<Listener> waiting = pending.get(epochDay);
+        if(waiting != null){
+            if(!waiting.contains(listener)){
+                waiting.add(listener);
+            }
+            return;
+        }
+        waiting = new ArrayList<Listener>();
+        waiting.add(listener);
+        pending.put(epochDay, waiting);
+
+        final int loadLocation = location;
+        final int loadGeneration = generation;
+        executor.execute(new Runnable() {
+            public void run() {
+                Day loaded = null;
+                try{
+                    loaded = build(epochDay, loadLocation);
+                }
+                catch(Exception e){
+                    System.err.println("Could not load day "+epochDay+": "+e);
+                }
+                final Day result = loaded;
+                handler.post(new Runnable() {
+                    public void run() {
+                        deliver(epochDay, result, loadGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+    * Build and cache the Day on the calling thread. Used at startup (before anything else loads from the cache) so
+    * that today's page can be shown as soon as the pager is.
+     */
+    public Day loadNow(int epochDay){
+        Day day = build(epochDay, location);
+        days.put(epochDay, day);
+        return day;
+    }
+
+    /*
+    * Forget every Day (e.g. after a sync, or for a new surf location). Listeners still waiting for a Day are dropped,
+    * so callers should ask for the Days they show again.
+     */
+    public void clear(int location){
+        this.location = location;
+        generation ++;
+        days.evictAll();
+        pending.clear();
+    }
+
+    public void close(){
+        executor.shutdownNow();
+    }
+
+    private void deliver(int epochDay, Day day, int loadGeneration){
+        if(loadGeneration != generation){
+            return;
+        }
+        ArrayList<Listener> waiting = pending.get(epochDay);
+        pending.remove(epochDay);
+        if(day == null || waiting == null){
+            return;
+        }
+        days.put(epochDay, day);
+        for(Listener listener : waiting){
+            listener.onDayLoaded(epochDay, day);
+        }
+    }
+
+    /*
+    * Build a Day, along with the tides of the days either side of it (for the ends of its tide graph). Only the tide
+    * rows are read for the neighbours, so their weather and surf aren't loaded, and each cached Day holds no other Days.
+     */
+    private Day build(int epochDay, int location){
+        Day day = Utilities.createDays(tides, weather, Utilities.fromEpochDay(epochDay), 1, location).get(0);
+        Tides[] around = Utilities.createTides(tides, Utilities.fromEpochDay(epochDay-1), 3);
+        return day.withNeighbours(around[0], around[2]);
+    }
+}
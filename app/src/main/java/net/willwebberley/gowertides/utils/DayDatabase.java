@@ -17,9 +17,7 @@ project repository.
 
 package net.willwebberley.gowertides.utils;
 
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -30,61 +28,112 @@ import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
 import net.willwebberley.gowertides.classes.Day;
 
 
-public class DayDatabase extends SQLiteAssetHelper {
+public class DayDatabase extends SQLiteAssetHelper implements TideSource {
 
 	private static final String DATABASE_NAME = "tides";
+    // Both the original text asset and one compiled by tools/tidecompiler (numeric times and heights) can be read.
+    // Move to version 2 in the same change that ships a compiled asset, so existing installs copy it.
 	private static final int DATABASE_VERSION = 1;
 
     // Will force upgrade databases less than this version to the one stored in /assets.
     // When updating tide database, increment both of these values (version and upgrade_version).
     private static final int UPGRADE_VERSION = 1;
 
+    // Queries take their values as bound arguments so the SQL text never changes and the connection's compiled
+    // statement is reused
+    private static final String SELECT_DAY = "SELECT * FROM data WHERE epoch_day = ?";
+    private static final String SELECT_DAYS = "SELECT * FROM data WHERE epoch_day BETWEEN ? AND ? ORDER BY epoch_day ASC";
+
 	public DayDatabase(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
         setForcedUpgradeVersion(UPGRADE_VERSION);
 	}
 
-    public Calendar getFirstDay(){
-        SQLiteDatabase db = getReadableDatabase();
+    /*
+    * Cached bounds of the tide data (as days since the epoch), loaded on first use.
+     */
+    private boolean boundsLoaded = false;
+    private int firstEpochDay, lastEpochDay;
 
-        Cursor c = db.rawQuery("SELECT * FROM data ORDER BY year ASC, month ASC, day ASC", null);
-        c.moveToFirst();
-        Calendar cal = parseString(c.getInt(2)+"/"+c.getInt(1)+"/"+c.getInt(0));
-        c.close();
-        return cal;
+    /*
+    * Set once the 'epoch_day' column and its index have been checked for in this process.
+     */
+    private boolean schemaChecked = false;
+
+    public Calendar getFirstDay(){
+        return Utilities.fromEpochDay(getFirstEpochDay());
     }
     public Calendar getLastDay(){
-        SQLiteDatabase db = getReadableDatabase();
+        return Utilities.fromEpochDay(getLastEpochDay());
+    }
 
-        Cursor c = db.rawQuery("SELECT * FROM data ORDER BY year ASC, month ASC, day ASC", null);
-        c.moveToLast();
-        Calendar cal = parseString(c.getInt(2)+"/"+c.getInt(1)+"/"+c.getInt(0));
+    public int getFirstEpochDay(){
+        loadBounds();
+        return firstEpochDay;
+    }
+    public int getLastEpochDay(){
+        loadBounds();
+        return lastEpochDay;
+    }
+
+    /*
+    * Read the first and last days from the epoch_day index (rather than sorting the whole table). These never change
+    * for a given asset, so are only read once.
+     */
+    private synchronized void loadBounds(){
+        if(boundsLoaded){
+            return;
+        }
+        SQLiteDatabase db = getDatabase();
+        Cursor c = db.rawQuery("SELECT MIN(epoch_day), MAX(epoch_day) FROM data", null);
+        c.moveToFirst();
+        firstEpochDay = c.getInt(0);
+        lastEpochDay = c.getInt(1);
         c.close();
-        return cal;
+        boundsLoaded = true;
     }
 
-    private Calendar parseString(String test){
-        Date tester = null;
-        try{
-            SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
-            tester = (Date)sdf.parse(test);
+    /*
+    * Get the database, making sure that the data table has an indexed 'epoch_day' column.
+    *
+    * Compiled assets (see tools/tidecompiler) have it as their primary key. Older tide assets only have year, month
+    * and day columns, so the column is added (and filled from those) the first time such an asset is opened.
+     */
+    private synchronized SQLiteDatabase getDatabase(){
+        if(schemaChecked){
+            return getReadableDatabase();
         }
-        catch(Exception e){
-            System.err.println(e);
+        SQLiteDatabase db = getWritableDatabase();
+        boolean hasEpochDay = false;
+        Cursor c = db.rawQuery("PRAGMA table_info(data)", null);
+        while(c.moveToNext()){
+            if(c.getString(1).equals("epoch_day")){
+                hasEpochDay = true;
+            }
         }
+        c.close();
 
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(tester);
-        return cal;
+        if(!hasEpochDay){
+            db.beginTransaction();
+            try{
+                db.execSQL("ALTER TABLE data ADD COLUMN epoch_day INTEGER");
+                db.execSQL("UPDATE data SET epoch_day = CAST(julianday(year || '-' || substr('0' || month, -2, 2) || '-' || substr('0' || day, -2, 2)) - 2440587.5 AS INTEGER)");
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS data_epoch_day ON data (epoch_day)");
+                db.setTransactionSuccessful();
+            }
+            finally{
+                db.endTransaction();
+            }
+        }
+        schemaChecked = true;
+        return db;
     }
 
 	public Cursor getDayInfo(java.util.Calendar todayDate) {
-		int month = (todayDate.get(Calendar.MONTH))+1;
-		int year = todayDate.get(Calendar.YEAR);
-		int day = todayDate.get(Calendar.DAY_OF_MONTH);
+		int epochDay = Utilities.toEpochDay(todayDate);
 		try{
-			SQLiteDatabase db = getReadableDatabase();
-			Cursor c = db.rawQuery("SELECT * FROM data WHERE year="+year+" AND month="+month+" AND day="+day, null);
+			SQLiteDatabase db = getDatabase();
+			Cursor c = db.rawQuery(SELECT_DAY, new String[]{Integer.toString(epochDay)});
 
 			c.moveToFirst();
 			return c;
@@ -97,4 +146,22 @@ public class DayDatabase extends SQLiteAssetHelper {
 		return null;
 
 	}
+
+    /*
+    * Get the tide data for every day between the two Calendar days (inclusive), ordered by date.
+    * Used to build a whole window of Days from a single query rather than one query per day.
+     */
+    public Cursor getDaysInfo(Calendar from, Calendar to) {
+        try{
+            SQLiteDatabase db = getDatabase();
+            Cursor c = db.rawQuery(SELECT_DAYS, new String[]{Integer.toString(Utilities.toEpochDay(from)), Integer.toString(Utilities.toEpochDay(to))});
+
+            c.moveToFirst();
+            return c;
+        }
+        catch(Exception e){
+            System.err.println(e);
+        }
+        return null;
+    }
 }
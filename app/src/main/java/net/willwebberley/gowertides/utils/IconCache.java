@@ -0,0 +1,124 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.v4.util.LruCache;
+
+/*
+* Decoded images from the app's 'icons' assets (weather symbols and the wind arrow), keyed by file name.
+*
+* Each image is decoded once and kept until the cache's memory budget is used up, when the least recently used is
+* dropped. get() hands out a new Drawable sharing the decoded bitmap, so the same icon can be shown in several views.
+ */
+public class IconCache {
+
+    // Share of the app's maximum heap the decoded icons may use
+    public static final int HEAP_FRACTION = 32;
+
+    private static IconCache shared;
+
+    /*
+    * A decoded icon, with the size of its bitmap (worked out once, when it is decoded).
+     */
+    private static class Icon {
+        final Drawable.ConstantState state;
+        final int bytes;
+
+        Icon(Drawable.ConstantState state, int bytes){
+            this.state = state;
+            this.bytes = bytes;
+        }
+    }
+
+    private final AssetManager assets;
+    private final LruCache<String, Icon> icons;
+
+    private IconCache(Context context){
+        assets = context.getApplicationContext().getAssets();
+        int budget = (int)(Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+        icons = new LruCache<String, Icon>(budget){
+            @Override
+            protected int sizeOf(String name, Icon icon){
+                return icon.bytes;
+            }
+        };
+    }
+
+    public static synchronized IconCache getShared(Context context){
+        if(shared == null){
+            shared = new IconCache(context);
+        }
+        return shared;
+    }
+
+    /*
+    * Get the icon with the given file name, decoding it if it isn't cached. Returns null if name is null or the icon
+    * can't be read.
+     */
+    public Drawable get(String name){
+        if(name == null){
+            return null;
+        }
+        Icon icon = icons.get(name);
+        if(icon == null){
+            icon = decode(name);
+            if(icon == null){
+                return null;
+            }
+            icons.put(name, icon);
+        }
+        return icon.state.newDrawable();
+    }
+
+    private Icon decode(String name){
+        InputStream in = null;
+        try{
+            in = assets.open("icons/"+name);
+            Drawable d = Drawable.createFromStream(in, null);
+            if(d == null || d.getConstantState() == null){
+                return null;
+            }
+            int bytes = 1;
+            if(d instanceof BitmapDrawable && ((BitmapDrawable)d).getBitmap() != null){
+                bytes = ((BitmapDrawable)d).getBitmap().getRowBytes() * ((BitmapDrawable)d).getBitmap().getHeight();
+            }
+            return new Icon(d.getConstantState(), bytes);
+        }
+        catch(IOException e){
+            System.err.println(e);
+            return null;
+        }
+        finally{
+            if(in != null){
+                try{
+                    in.close();
+                }
+                catch(IOException e){
+                    System.err.println(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/*
+* Calls a listener on the main thread just after each wall-clock minute boundary, so that timers and the current time
+* on the graph change when the clock does.
+*
+* There is one ticker for the app (see getInstance()) and it has at most one listener. It uses the main thread's
+* Handler rather than a thread of its own, and posts nothing while it is stopped.
+ */
+public class MinuteTicker {
+
+    private static MinuteTicker instance;
+
+    public static synchronized MinuteTicker getInstance(){
+        if(instance == null){
+            instance = new MinuteTicker();
+        }
+        return instance;
+    }
+
+    public interface Listener {
+        public void onMinute();
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Listener listener;
+
+    private final Runnable tick = new Runnable() {
+        public void run() {
+            // Handler delays run on uptime rather than wall-clock time, so if this is early just wait out the minute
+            long intoMinute = System.currentTimeMillis() % 60000;
+            if(intoMinute > 59000){
+                handler.postDelayed(tick, 60000 - intoMinute);
+                return;
+            }
+            schedule();
+            if(listener != null){
+                listener.onMinute();
+            }
+        }
+    };
+
+    private MinuteTicker(){
+    }
+
+    /*
+    * Start ticking for the listener, replacing any other listener. Must be called on the main thread.
+     */
+    public void start(Listener listener){
+        this.listener = listener;
+        handler.removeCallbacks(tick);
+        schedule();
+    }
+
+    /*
+    * Stop ticking, if the listener is the one ticking.
+     */
+    public void stop(Listener listener){
+        if(this.listener == listener){
+            this.listener = null;
+            handler.removeCallbacks(tick);
+        }
+    }
+
+    private void schedule(){
+        handler.postDelayed(tick, 60000 - System.currentTimeMillis() % 60000);
+    }
+}
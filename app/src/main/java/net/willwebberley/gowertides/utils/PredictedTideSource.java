@@ -0,0 +1,116 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.Calendar;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+
+/*
+* TideSource that extends another source past the end of its data with harmonic predictions (see TidePredictor).
+*
+* Predicted days have tide times, heights and types (in the same columns as the compiled tide asset), but no sunrise,
+* sunset or moon.
+ */
+public class PredictedTideSource implements TideSource {
+
+    // How far past the end of the tide table days are predicted
+    public static final int PREDICTION_DAYS = 5*365;
+
+    private static final int MAX_TIDES = 5;
+
+    private final TideSource source;
+    private final TidePredictor predictor;
+
+    // Working arrays for predictions (guarded by 'this', as is the predictor)
+    private final long[] times = new long[MAX_TIDES];
+    private final int[] heights = new int[MAX_TIDES];
+    private final int[] types = new int[MAX_TIDES];
+
+    public PredictedTideSource(TideSource source, TidePredictor predictor){
+        this.source = source;
+        this.predictor = predictor;
+    }
+
+    public Calendar getFirstDay(){
+        return source.getFirstDay();
+    }
+    public Calendar getLastDay(){
+        return Utilities.fromEpochDay(getLastEpochDay());
+    }
+    public int getFirstEpochDay(){
+        return source.getFirstEpochDay();
+    }
+    public int getLastEpochDay(){
+        return source.getLastEpochDay() + PREDICTION_DAYS;
+    }
+
+    public Cursor getDayInfo(Calendar day){
+        int epochDay = Utilities.toEpochDay(day);
+        if(epochDay <= source.getLastEpochDay()){
+            return source.getDayInfo(day);
+        }
+        return predict(epochDay, epochDay);
+    }
+
+    public Cursor getDaysInfo(Calendar from, Calendar to){
+        int lastTableDay = source.getLastEpochDay();
+        if(Utilities.toEpochDay(to) <= lastTableDay){
+            return source.getDaysInfo(from, to);
+        }
+        if(Utilities.toEpochDay(from) > lastTableDay){
+            return predict(Utilities.toEpochDay(from), Utilities.toEpochDay(to));
+        }
+        // Window runs off the end of the table: table rows first, then predictions
+        Cursor table = source.getDaysInfo(from, Utilities.fromEpochDay(lastTableDay));
+        Cursor predicted = predict(lastTableDay + 1, Utilities.toEpochDay(to));
+        Cursor c = new MergeCursor(new Cursor[]{table, predicted});
+        c.moveToFirst();
+        return c;
+    }
+
+    /*
+    * Cursor of predicted rows for the days between the two epoch days (inclusive), limited to the predicted range.
+    * Each day runs from midnight to midnight UK time, as in the tide table.
+     */
+    private synchronized Cursor predict(int fromEpochDay, int toEpochDay){
+        MatrixCursor c = new MatrixCursor(TideStore.COLUMNS);
+        for(int epochDay = fromEpochDay; epochDay <= Math.min(toEpochDay, getLastEpochDay()); epochDay++){
+            long start = epochDay*1440L - Constants.getTideTimeZone().getOffset(epochDay*86400000L)/60000;
+            long end = (epochDay+1)*1440L - Constants.getTideTimeZone().getOffset((epochDay+1)*86400000L)/60000;
+            int found = predictor.predictEvents(start, end, times, heights, types);
+
+            int key = Utilities.epochDayToDateKey(epochDay);
+            Object[] row = new Object[TideStore.COLUMNS.length];
+            row[0] = epochDay;
+            row[1] = key/10000;
+            row[2] = (key/100)%100;
+            row[3] = key%100;
+            for(int i = 0; i < found; i++){
+                row[8 + i*3] = (int)(times[i] - epochDay*1440L); // minutes from midnight UTC
+                row[9 + i*3] = heights[i];
+                row[10 + i*3] = types[i];
+            }
+            c.addRow(row);
+        }
+        c.moveToFirst();
+        return c;
+    }
+}
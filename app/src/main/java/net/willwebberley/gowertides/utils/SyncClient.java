@@ -0,0 +1,429 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/*
+* Makes conditional requests for a location's surf and weather data.
+*
+* The ETag from the last successful sync is sent as If-None-Match, so an unchanged forecast costs a 304 with no body.
+* The newest timestamp already stored is sent as 'since', so the server can leave out rows the app already has (any
+* that are still sent are skipped on insert, see WeatherDatabase).
+ */
+public class SyncClient {
+
+    // Most requests made at once by fetchAll()
+    public static final int MAX_CONCURRENT_FETCHES = 4;
+
+    // Connections are abandoned (and retried) if they take longer than these (ms)
+    public static final int CONNECT_TIMEOUT = 15000;
+    public static final int READ_TIMEOUT = 30000;
+
+    // Attempts made for each location, and the delay before the first retry (ms), which doubles for each retry after
+    public static final int MAX_ATTEMPTS = 3;
+    public static final long RETRY_DELAY = 2000;
+
+    // Buffers for response bodies, reused from one sync to the next (one is kept per concurrent fetch)
+    private static final int INITIAL_BUFFER_SIZE = 64*1024;
+    private static final ArrayList<byte[]> bufferPool = new ArrayList<byte[]>();
+
+    private String dataURL;
+    private String device;
+    private String version;
+    private int connectTimeout = CONNECT_TIMEOUT, readTimeout = READ_TIMEOUT;
+    private int maxAttempts = MAX_ATTEMPTS;
+    private long retryDelay = RETRY_DELAY;
+    private final Random random = new Random();
+
+    // Connections currently open, so cancel() can close them (guarded by itself)
+    private final ArrayList<HttpURLConnection> connections = new ArrayList<HttpURLConnection>();
+    private volatile boolean cancelled = false;
+
+    public SyncClient(String dataURL, String device, String version){
+        this.dataURL = dataURL;
+        this.device = device;
+        this.version = version;
+    }
+
+    public void setRetry(int maxAttempts, long retryDelay){
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+    }
+
+    public void setTimeouts(int connectTimeout, int readTimeout){
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /*
+    * Stop all requests: open connections are closed (so blocked reads fail at once), retries are abandoned and no new
+    * requests are made.
+     */
+    public void cancel(){
+        cancelled = true;
+        synchronized(connections){
+            for(HttpURLConnection con : connections){
+                con.disconnect();
+            }
+        }
+    }
+
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /*
+    * Thrown for responses other than 200 and 304. Only server errors (5xx) are retried.
+     */
+    public static class HttpException extends IOException {
+        public final int status;
+
+        public HttpException(int status){
+            super("Sync failed: HTTP "+status);
+            this.status = status;
+        }
+    }
+
+    /*
+    * Result of a request. If notModified is false, the caller must read and then close() the body.
+     */
+    public static class Response {
+        public boolean notModified;
+        public InputStream body;
+        public String etag;
+        private HttpURLConnection connection;
+        private SyncClient owner;
+        private boolean gzipped;
+        private CountingInputStream compressed, uncompressed;
+        private byte[] buffer;
+
+        /*
+        * Bytes of the body read so far as sent (gzipped, if the server agreed to it) and after decompression.
+         */
+        public long getCompressedBytes(){
+            return compressed == null ? 0 : compressed.count;
+        }
+        public long getBytes(){
+            return uncompressed == null ? 0 : uncompressed.count;
+        }
+
+        /*
+        * Set the body to read (and count) the data from 'in', decompressing it if it was sent gzipped.
+         */
+        private void decode(InputStream in) throws IOException {
+            if(gzipped){
+                in = new GZIPInputStream(in, 8192);
+            }
+            uncompressed = new CountingInputStream(in);
+            body = uncompressed;
+        }
+
+        /*
+        * Read the rest of the body, as sent, into a pooled buffer and release the connection, so the response can be
+        * stored later. Only the compressed bytes are held: the body decompresses them from the buffer as it is read,
+        * so storing it still only holds one row at a time. The buffer goes back to the pool on close().
+         */
+        private void buffer() throws IOException {
+            if(notModified){
+                return;
+            }
+            byte[] b = takeBuffer();
+            buffer = b; // so close() returns it, even if the read fails
+            int length = 0;
+            boolean read = false;
+            try{
+                while(true){
+                    if(length == b.length){
+                        byte[] larger = new byte[b.length*2];
+                        System.arraycopy(b, 0, larger, 0, length);
+                        b = larger;
+                        buffer = b;
+                    }
+                    int n = compressed.read(b, length, b.length - length);
+                    if(n == -1){
+                        break;
+                    }
+                    length += n;
+                }
+                read = true;
+            }
+            finally{
+                if(!read){
+                    close();
+                }
+            }
+            disconnect();
+            try{
+                decode(new ByteArrayInputStream(b, 0, length));
+            }
+            catch(IOException e){
+                close();
+                throw e;
+            }
+        }
+
+        public void close(){
+            disconnect();
+            if(buffer != null){
+                returnBuffer(buffer);
+                buffer = null;
+            }
+        }
+
+        private void disconnect(){
+            try{
+                if(body != null){
+                    body.close();
+                }
+                else if(compressed != null){
+                    compressed.close();
+                }
+            }
+            catch(IOException e){
+                System.err.println(e);
+            }
+            connection.disconnect();
+            synchronized(owner.connections){
+                owner.connections.remove(connection);
+            }
+        }
+    }
+
+    /*
+    * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1){
+                count ++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0){
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static byte[] takeBuffer(){
+        synchronized(bufferPool){
+            if(!bufferPool.isEmpty()){
+                return bufferPool.remove(bufferPool.size() - 1);
+            }
+        }
+        return new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    private static void returnBuffer(byte[] buffer){
+        synchronized(bufferPool){
+            if(bufferPool.size() < MAX_CONCURRENT_FETCHES){
+                bufferPool.add(buffer);
+            }
+        }
+    }
+
+    /*
+    * Make the request for a location, leaving the body unread (in response.compressed). gzip is asked for explicitly
+    * (which turns off HttpURLConnection's transparent decompression) so that both the bytes transferred and the bytes
+    * decoded can be counted.
+     */
+    private Response open(int location, String etag, long since) throws IOException {
+        if(cancelled){
+            throw new InterruptedIOException("Sync cancelled");
+        }
+        String address = dataURL+"?dev="+device+"&ver="+version+"&loc="+location;
+        if(since > 0){
+            address += "&since="+since;
+        }
+        HttpURLConnection con = (HttpURLConnection) new URL(address).openConnection();
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+        con.setRequestProperty("Accept-Encoding", "gzip");
+        if(etag != null){
+            con.setRequestProperty("If-None-Match", etag);
+        }
+
+        Response response = new Response();
+        response.connection = con;
+        response.owner = this;
+        synchronized(connections){
+            connections.add(con);
+        }
+        int status;
+        try{
+            status = con.getResponseCode();
+        }
+        catch(IOException e){
+            response.close();
+            throw e;
+        }
+        if(status == HttpURLConnection.HTTP_NOT_MODIFIED){
+            response.notModified = true;
+            response.etag = etag;
+            return response;
+        }
+        if(status != HttpURLConnection.HTTP_OK){
+            response.close();
+            throw new HttpException(status);
+        }
+        response.compressed = new CountingInputStream(con.getInputStream());
+        response.gzipped = "gzip".equalsIgnoreCase(con.getContentEncoding());
+        response.etag = con.getHeaderField("ETag");
+        return response;
+    }
+
+    /*
+    * Fetch and buffer a location's response, retrying failed attempts (other than client errors) after an exponential
+    * backoff. The delay before retry n is between half and all of retryDelay * 2^(n-1), so clients that failed together
+    * don't all retry together.
+     */
+    private Response fetchWithRetry(int location, String etag, long since) throws IOException {
+        for(int attempt = 1; ; attempt++){
+            try{
+                Response response = open(location, etag, since);
+                response.buffer();
+                return response;
+            }
+            catch(IOException e){
+                boolean retryable = !(e instanceof HttpException) || ((HttpException)e).status >= 500;
+                if(cancelled || attempt >= maxAttempts || !retryable){
+                    throw e;
+                }
+                long delay = retryDelay << (attempt - 1);
+                delay = delay/2 + (long)(random.nextDouble() * delay/2);
+                System.err.println("Sync of location "+location+" failed ("+e+"), retrying in "+delay+"ms");
+                try{
+                    Thread.sleep(delay);
+                }
+                catch(InterruptedException ie){
+                    throw new InterruptedIOException("Sync cancelled");
+                }
+            }
+        }
+    }
+
+    /*
+    * Fetch several locations at once (at most MAX_CONCURRENT_FETCHES in parallel), so the whole sync takes about as long
+    * as the slowest request. Bodies are read into memory so they can be stored one after another by a single writer.
+    * The responses are in the order of 'locations'; a location whose request failed has a null response.
+    *
+    * If the calling thread is interrupted, the fetch is abandoned: every response, including those of requests that
+    * finish later, is closed, and all of them are returned as null.
+     */
+    public Response[] fetchAll(final int[] locations, final String[] etags, final long[] since){
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(locations.length, MAX_CONCURRENT_FETCHES));
+        // Each request hands its response over here (guarded by itself), unless the fetch has been abandoned
+        final Response[] responses = new Response[locations.length];
+        final boolean[] abandoned = {false};
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(locations.length);
+        for(int i = 0; i < locations.length; i++){
+            final int index = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    Response response = fetchWithRetry(locations[index], etags[index], since[index]);
+                    synchronized(responses){
+                        if(abandoned[0]){
+                            response.close();
+                        }
+                        else{
+                            responses[index] = response;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try{
+            for(int i = 0; i < locations.length; i++){
+                try{
+                    futures.get(i).get();
+                }
+                catch(ExecutionException e){
+                    System.err.println("Could not sync location "+locations[i]+": "+e.getCause());
+                }
+            }
+        }
+        catch(InterruptedException e){
+            synchronized(responses){
+                abandoned[0] = true;
+                for(int i = 0; i < responses.length; i++){
+                    if(responses[i] != null){
+                        responses[i].close();
+                        responses[i] = null;
+                    }
+                }
+            }
+            Thread.currentThread().interrupt();
+        }
+        finally{
+            executor.shutdownNow();
+        }
+        return responses;
+    }
+
+    /*
+    * Number of connections currently open, and of buffers waiting in the pool (used by the tests).
+     */
+    int getOpenConnections(){
+        synchronized(connections){
+            return connections.size();
+        }
+    }
+
+    static int getPooledBuffers(){
+        synchronized(bufferPool){
+            return bufferPool.size();
+        }
+    }
+}
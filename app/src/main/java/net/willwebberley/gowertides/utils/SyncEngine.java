@@ -0,0 +1,251 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+/*
+* Runs surf and weather syncs in the background, one at a time.
+*
+* Locations synced within the TTL (see SyncScheduler.getTtl()) are skipped unless the sync is forced, and a sync with
+* nothing to fetch makes no requests. A sync requested while another is running doesn't start a second one: the caller
+* is just told when the running one finishes. Requests are retried with backoff by SyncClient, and cancel() abandons
+* the running sync (closing its connections) once nobody is waiting for it.
+*
+* There is one engine per process (see getInstance()), shared by the app and the background sync services.
+* Listeners are called on the main thread.
+ */
+public class SyncEngine {
+
+    private static SyncEngine instance;
+
+    public static synchronized SyncEngine getInstance(Context context){
+        if(instance == null){
+            instance = new SyncEngine(context, WeatherDatabase.getInstance(context));
+        }
+        return instance;
+    }
+
+    public interface Listener {
+        public void onSyncFinished(boolean success);
+    }
+
+    private final Context context;
+    private final WeatherDatabase db;
+    private final String dataURL, device, version;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Guarded by 'this'
+    private final ArrayList<Listener> listeners = new ArrayList<Listener>();
+    private Future<?> job;
+    private SyncClient client;
+
+    // Preferences holding the number of locations fetched and skipped as fresh (kept across restarts, and shown in the
+    // settings)
+    private static final String FETCH_COUNT = "sync_fetch_count";
+    private static final String SKIP_COUNT = "sync_skip_count";
+
+    private SyncEngine(Context context, WeatherDatabase db){
+        this(context, db, Constants.getDataURL());
+    }
+
+    /*
+    * Engine syncing from another server (used by the tests).
+     */
+    SyncEngine(Context context, WeatherDatabase db, String dataURL){
+        this.context = context.getApplicationContext();
+        this.db = db;
+        this.dataURL = dataURL;
+        this.device = android.os.Build.MANUFACTURER+"-"+android.os.Build.MODEL.replace(" ", "-");
+        this.version = android.os.Build.VERSION.RELEASE;
+    }
+
+    /*
+    * Sync the locations, unless a sync is already running. Either way the listener (which may be null) is called once
+    * the running sync finishes. Returns true if a new sync was started.
+     */
+    public synchronized boolean sync(final int[] locations, final boolean force, Listener listener){
+        if(listener != null && !listeners.contains(listener)){
+            listeners.add(listener);
+        }
+        if(job != null){
+            return false;
+        }
+        final SyncClient jobClient = new SyncClient(dataURL, device, version);
+        client = jobClient;
+        job = executor.submit(new Runnable() {
+            public void run() {
+                boolean success = false;
+                try{
+                    int[] due = force ? locations : staleLocations(locations);
+                    countSkipped(locations.length, due.length);
+                    success = due.length == 0 || runSync(jobClient, due);
+                }
+                catch(Exception e){
+                    System.err.println("Sync failed: "+e);
+                }
+                finish(jobClient, success);
+            }
+        });
+        return true;
+    }
+
+    public synchronized boolean isSyncing(){
+        return job != null;
+    }
+
+    /*
+    * Locations fetched by syncs so far.
+     */
+    public synchronized int getFetchCount(){
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(FETCH_COUNT, 0);
+    }
+
+    /*
+    * Locations syncs have skipped because their data was still fresh.
+     */
+    public synchronized int getSkipCount(){
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(SKIP_COUNT, 0);
+    }
+
+    private int[] staleLocations(int[] locations){
+        int[] stale = new int[locations.length];
+        int count = 0;
+        for(int location : locations){
+            if(SyncScheduler.isStale(context, db, location)){
+                stale[count++] = location;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(stale, 0, result, 0, count);
+        return result;
+    }
+
+    /*
+    * Stop calling the listener, but leave the running sync going even if nobody else is waiting for it (e.g. while an
+    * activity is recreated after a configuration change, the new one waiting for the sync instead).
+     */
+    public synchronized void removeListener(Listener listener){
+        listeners.remove(listener);
+    }
+
+    /*
+    * Stop waiting for the running sync (the listener won't be called). If nobody else is waiting for it, the sync is
+    * abandoned.
+     */
+    public synchronized void cancel(Listener listener){
+        listeners.remove(listener);
+        if(job == null || !listeners.isEmpty()){
+            return;
+        }
+        client.cancel();
+        job.cancel(true);
+        job = null;
+        client = null;
+        listeners.clear();
+    }
+
+    private void finish(SyncClient jobClient, final boolean success){
+        final Listener[] toNotify;
+        synchronized(this){
+            if(client != jobClient){
+                // Cancelled
+                return;
+            }
+            job = null;
+            client = null;
+            toNotify = listeners.toArray(new Listener[listeners.size()]);
+            listeners.clear();
+        }
+        handler.post(new Runnable() {
+            public void run() {
+                for(Listener listener : toNotify){
+                    listener.onSyncFinished(success);
+                }
+            }
+        });
+    }
+
+    private synchronized void countSkipped(int requested, int due){
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        int fetchCount = prefs.getInt(FETCH_COUNT, 0) + due;
+        int skipCount = prefs.getInt(SKIP_COUNT, 0) + requested - due;
+        prefs.edit().putInt(FETCH_COUNT, fetchCount).putInt(SKIP_COUNT, skipCount).commit();
+        System.out.println("Syncing "+due+" of "+requested+" locations ("+fetchCount+" fetched, "+skipCount+
+                " skipped as fresh so far).");
+    }
+
+    private boolean runSync(SyncClient client, int[] locations){
+        System.out.println("Starting download...");
+
+        // Make the requests, each conditional on what has already been stored for its location:
+        String[] etags = new String[locations.length];
+        long[] since = new long[locations.length];
+        for(int i = 0; i < locations.length; i++){
+            etags[i] = db.getSyncEtag(locations[i]);
+            since[i] = db.getWatermark(locations[i]);
+        }
+        SyncClient.Response[] responses = client.fetchAll(locations, etags, since);
+
+        // Save the data returned by the server (unless cancelled meanwhile), closing the responses either way:
+        int stored;
+        try {
+            if(client.isCancelled()){
+                return false;
+            }
+            stored = db.storeAll(locations, responses);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            long compressed = 0, bytes = 0;
+            for(SyncClient.Response response : responses){
+                if(response != null){
+                    compressed += response.getCompressedBytes();
+                    bytes += response.getBytes();
+                    response.close();
+                }
+            }
+            System.out.println("Downloaded "+compressed+" bytes ("+bytes+" uncompressed).");
+        }
+        System.out.println("Stored "+stored+" new rows.");
+
+        // Then drop superseded forecasts and days older than the history preference
+        if(stored > 0){
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            db.applyRetention(Integer.parseInt(prefs.getString("history_days", Constants.getDefaultHistoryDays())));
+        }
+
+        // All done.
+        System.out.println("Done.");
+        return stored >= 0;
+    }
+}
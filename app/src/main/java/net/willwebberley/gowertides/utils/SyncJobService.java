@@ -0,0 +1,57 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.SparseArray;
+
+/*
+* Runs the scheduled background sync on Lollipop and above (see SyncScheduler).
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService {
+
+    // Listener for each running job, by job id
+    private final SparseArray<SyncEngine.Listener> running = new SparseArray<SyncEngine.Listener>();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        SyncEngine.Listener listener = new SyncEngine.Listener() {
+            public void onSyncFinished(boolean success) {
+                running.remove(params.getJobId());
+                jobFinished(params, !success);
+            }
+        };
+        running.put(params.getJobId(), listener);
+        SyncEngine.getInstance(this).sync(SyncScheduler.getLocations(this), false, listener);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        SyncEngine.Listener listener = running.get(params.getJobId());
+        if(listener != null){
+            running.remove(params.getJobId());
+            SyncEngine.getInstance(this).cancel(listener);
+        }
+        return true;
+    }
+}
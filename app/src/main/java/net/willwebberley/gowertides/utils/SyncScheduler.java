@@ -0,0 +1,171 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.List;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+import net.willwebberley.gowertides.R;
+
+/*
+* Schedules the background sync of every location, so the app normally opens with data that is already up to date.
+*
+* On Lollipop and above this uses JobScheduler (SyncJobService), with one job that runs on an unmetered network and
+* another that runs while charging. Before that, an inexact repeating alarm starts SyncService, which checks the same
+* conditions itself. The alarm is set again after a reboot by BootReceiver.
+ */
+public class SyncScheduler {
+
+    // How often the background sync runs (ms)
+    public static final long INTERVAL = 6*AlarmManager.INTERVAL_HOUR;
+
+    private static final int JOB_UNMETERED = 1;
+    private static final int JOB_CHARGING = 2;
+
+    /*
+    * Schedule the background sync (or cancel it if the "sync_enabled" preference is off). Nothing changes if it is
+    * already scheduled.
+     */
+    public static void schedule(Context context){
+        if(!PreferenceManager.getDefaultSharedPreferences(context).getBoolean("sync_enabled", true)){
+            cancel(context);
+            return;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP){
+            scheduleJobs(context);
+        }
+        else if(PendingIntent.getService(context, 0, alarmIntent(context), PendingIntent.FLAG_NO_CREATE) == null){
+            AlarmManager alarms = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+            alarms.setInexactRepeating(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + INTERVAL, INTERVAL,
+                    PendingIntent.getService(context, 0, alarmIntent(context), 0));
+        }
+    }
+
+    public static void cancel(Context context){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP){
+            JobScheduler scheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            scheduler.cancel(JOB_UNMETERED);
+            scheduler.cancel(JOB_CHARGING);
+        }
+        else{
+            PendingIntent pending = PendingIntent.getService(context, 0, alarmIntent(context), PendingIntent.FLAG_NO_CREATE);
+            if(pending != null){
+                ((AlarmManager)context.getSystemService(Context.ALARM_SERVICE)).cancel(pending);
+                pending.cancel();
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJobs(Context context){
+        JobScheduler scheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        // Scheduling a job again would restart its period, so leave any that are already pending
+        boolean unmetered = false, charging = false;
+        List<JobInfo> pending = scheduler.getAllPendingJobs();
+        for(JobInfo job : pending){
+            unmetered |= job.getId() == JOB_UNMETERED;
+            charging |= job.getId() == JOB_CHARGING;
+        }
+        ComponentName service = new ComponentName(context, SyncJobService.class);
+        if(!unmetered){
+            scheduler.schedule(new JobInfo.Builder(JOB_UNMETERED, service)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                    .setPeriodic(INTERVAL)
+                    .setPersisted(true)
+                    .build());
+        }
+        if(!charging){
+            scheduler.schedule(new JobInfo.Builder(JOB_CHARGING, service)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setRequiresCharging(true)
+                    .setPeriodic(INTERVAL)
+                    .setPersisted(true)
+                    .build());
+        }
+    }
+
+    private static Intent alarmIntent(Context context){
+        return new Intent(context, SyncService.class);
+    }
+
+    public static int[] getLocations(Context context){
+        return context.getResources().getIntArray(R.array.locationKey);
+    }
+
+    /*
+    * How long a location's data is fresh for after it is synced (ms), from the "sync_ttl" preference (in hours). Syncs
+    * that aren't forced skip fresh locations.
+     */
+    public static long getTtl(Context context){
+        String hours = PreferenceManager.getDefaultSharedPreferences(context).getString("sync_ttl", Constants.getDefaultSyncTtl());
+        return Integer.parseInt(hours)*AlarmManager.INTERVAL_HOUR;
+    }
+
+    /*
+    * A location is stale if it was last synced longer ago than the TTL, or if the forecast that sync got is no longer
+    * stored.
+     */
+    public static boolean isStale(Context context, WeatherDatabase db, int location){
+        return db.getLastSynced(location) < System.currentTimeMillis() - getTtl(context) || db.isForecastMissing(location);
+    }
+
+    /*
+    * True if any location is stale.
+     */
+    public static boolean isStale(Context context, WeatherDatabase db){
+        for(int location : getLocations(context)){
+            if(isStale(context, db, location)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    * For the alarm fallback: true if connected to an unmetered network, or connected at all while charging.
+     */
+    public static boolean isGoodTimeToSync(Context context){
+        ConnectivityManager cm = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = cm.getActiveNetworkInfo();
+        if(network == null || !network.isConnected()){
+            return false;
+        }
+        boolean metered = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? cm.isActiveNetworkMetered() : network.getType() != ConnectivityManager.TYPE_WIFI;
+        if(!metered){
+            return true;
+        }
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
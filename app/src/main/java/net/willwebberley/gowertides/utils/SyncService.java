@@ -0,0 +1,54 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.concurrent.CountDownLatch;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+/*
+* Runs the scheduled background sync before Lollipop, when started by SyncScheduler's alarm.
+ */
+public class SyncService extends IntentService {
+
+    public SyncService(){
+        super("SyncService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if(!SyncScheduler.isGoodTimeToSync(this)){
+            return;
+        }
+        // Wait here (off the main thread) for the sync, so the service lives until it is done
+        final CountDownLatch done = new CountDownLatch(1);
+        SyncEngine.Listener listener = new SyncEngine.Listener() {
+            public void onSyncFinished(boolean success) {
+                done.countDown();
+            }
+        };
+        SyncEngine.getInstance(this).sync(SyncScheduler.getLocations(this), false, listener);
+        try{
+            done.await();
+        }
+        catch(InterruptedException e){
+            SyncEngine.getInstance(this).cancel(listener);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+/*
+* Harmonic tide predictor for the Mumbles (Swansea Bay) station.
+*
+* Heights are the sum of a mean level and a set of tidal constituents, each with a fixed speed and a fitted amplitude
+* and phase (with the standard nodal corrections for the 18.6 year lunar cycle):
+*   h(t) = Z0 + sum( f * H * cos(speed * t + u - g) )
+* where t is hours since 2000-01-01 00:00 UTC.
+*
+* The constants are fitted from the shipped tide table by tools/tidecompiler (HarmonicFitter), which also checks the
+* predictions against the table. This class has no Android dependencies so that the same code is used there.
+ */
+public class TidePredictor {
+
+    public static final String ASSET_NAME = "tide_harmonics.txt";
+
+    public static final int LOW = 0;
+    public static final int HIGH = 1;
+
+    /*
+    * Constituents that can be fitted, with their speeds (degrees per hour).
+     */
+    public static final String[] CONSTITUENTS = {"SA", "SSA", "Q1", "O1", "P1", "K1", "2N2", "MU2", "N2", "NU2", "M2",
+            "L2", "S2", "K2", "MN4", "M4", "MS4", "S4", "M6"};
+    public static final double[] SPEEDS = {0.0410686, 0.0821373, 13.3986609, 13.9430356, 14.9589314, 15.0410686,
+            27.8953548, 27.9682084, 28.4397295, 28.5125831, 28.9841042, 29.5284789, 30.0, 30.0821373, 57.4238337,
+            57.9682084, 58.9841042, 60.0, 86.9523127};
+
+    // Minutes since the epoch of 2000-01-01 00:00 UTC (the phase reference)
+    public static final long EPOCH_2000 = 10957L * 1440;
+    // Search step when looking for turning points (minutes)
+    private static final int STEP = 10;
+
+    private final double z0;
+    private final int[] index; // index of each of this predictor's constituents in CONSTITUENTS
+    private final double[] speed; // radians per minute
+    private final double[] amplitude; // metres
+    private final double[] phase; // radians
+
+    // Nodal corrections, cached for the (whole) day they were last worked out for
+    private long nodalDay = Long.MIN_VALUE;
+    private final double[] f;
+    private final double[] u;
+
+    public TidePredictor(double z0, String[] names, double[] amplitudes, double[] phases){
+        this.z0 = z0;
+        int n = names.length;
+        index = new int[n];
+        speed = new double[n];
+        amplitude = new double[n];
+        phase = new double[n];
+        f = new double[n];
+        u = new double[n];
+        for(int i = 0; i < n; i++){
+            index[i] = indexOf(names[i]);
+            if(index[i] < 0){
+                throw new IllegalArgumentException("Unknown constituent "+names[i]);
+            }
+            speed[i] = Math.toRadians(SPEEDS[index[i]]) / 60;
+            amplitude[i] = amplitudes[i];
+            phase[i] = Math.toRadians(phases[i]);
+        }
+    }
+
+    /*
+    * Read constants written by HarmonicFitter: one "name amplitude(m) phase(degrees)" line per constituent and a
+    * "Z0 level(m)" line. Blank lines and lines starting with '#' are ignored.
+     */
+    public static TidePredictor load(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        double z0 = 0;
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<double[]> values = new ArrayList<double[]>();
+        try{
+            String line;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#")){
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if(tokens[0].equals("Z0")){
+                    z0 = Double.parseDouble(tokens[1]);
+                }
+                else{
+                    names.add(tokens[0]);
+                    values.add(new double[]{Double.parseDouble(tokens[1]), Double.parseDouble(tokens[2])});
+                }
+            }
+        }
+        finally{
+            reader.close();
+        }
+        double[] amplitudes = new double[names.size()];
+        double[] phases = new double[names.size()];
+        for(int i = 0; i < names.size(); i++){
+            amplitudes[i] = values.get(i)[0];
+            phases[i] = values.get(i)[1];
+        }
+        return new TidePredictor(z0, names.toArray(new String[names.size()]), amplitudes, phases);
+    }
+
+    public static int indexOf(String name){
+        for(int i = 0; i < CONSTITUENTS.length; i++){
+            if(CONSTITUENTS[i].equals(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+    * Predicted height (metres above chart datum) at a time in minutes since the epoch (UTC).
+     */
+    public double height(long epochMinute){
+        updateNodal(epochMinute);
+        double t = epochMinute - EPOCH_2000;
+        double h = z0;
+        for(int i = 0; i < speed.length; i++){
+            h += f[i] * amplitude[i] * Math.cos(speed[i]*t + u[i] - phase[i]);
+        }
+        return h;
+    }
+
+    /*
+    * Find the high and low waters in [fromMinute, toMinute) (minutes since the epoch, UTC), writing their times,
+    * heights (cm) and types (LOW/HIGH) into the arrays. Returns the number found (at most times.length).
+    *
+    * The rate of change is stepped through the period, rotating each constituent's phase by a fixed angle per step
+    * (so there are no trig calls in the loop), and turning points are interpolated within the step they fall in.
+     */
+    public int predictEvents(long fromMinute, long toMinute, long[] times, int[] heights, int[] types){
+        updateNodal(fromMinute);
+        int n = speed.length;
+        double t0 = fromMinute - EPOCH_2000;
+        double[] cos = new double[n], sin = new double[n], stepCos = new double[n], stepSin = new double[n];
+        double[] rate = new double[n];
+        for(int i = 0; i < n; i++){
+            double angle = speed[i]*t0 + u[i] - phase[i];
+            cos[i] = Math.cos(angle);
+            sin[i] = Math.sin(angle);
+            stepCos[i] = Math.cos(speed[i]*STEP);
+            stepSin[i] = Math.sin(speed[i]*STEP);
+            rate[i] = -f[i] * amplitude[i] * speed[i];
+        }
+
+        int found = 0;
+        double previous = 0;
+        for(long t = fromMinute; t <= toMinute && found < times.length; t += STEP){
+            double current = 0;
+            for(int i = 0; i < n; i++){
+                current += rate[i] * sin[i];
+                double c = cos[i]*stepCos[i] - sin[i]*stepSin[i];
+                sin[i] = sin[i]*stepCos[i] + cos[i]*stepSin[i];
+                cos[i] = c;
+            }
+            if(t > fromMinute && (previous > 0) != (current > 0)){
+                long event = t - STEP + Math.round(STEP * previous / (previous - current));
+                if(event >= fromMinute && event < toMinute){
+                    times[found] = event;
+                    heights[found] = (int)Math.round(height(event) * 100);
+                    types[found] = previous > 0 ? HIGH : LOW;
+                    found++;
+                }
+            }
+            previous = current;
+        }
+        return found;
+    }
+
+    /*
+    * Work out the nodal factor (f) and angle (u) of each constituent for the day containing the given time, using the
+    * usual approximations in terms of the longitude of the moon's ascending node.
+     */
+    private void updateNodal(long epochMinute){
+        long day = epochMinute / 1440;
+        if(day == nodalDay){
+            return;
+        }
+        nodalDay = day;
+        double d = (epochMinute - EPOCH_2000) / 1440.0 - 0.5; // days since J2000
+        double node = Math.toRadians(125.04452 - 0.0529538083 * d);
+        double cosN = Math.cos(node), cos2N = Math.cos(2*node), cos3N = Math.cos(3*node);
+        double sinN = Math.sin(node), sin2N = Math.sin(2*node), sin3N = Math.sin(3*node);
+
+        double fM2 = 1.0004 - 0.0373*cosN + 0.0002*cos2N;
+        double uM2 = Math.toRadians(-2.14*sinN);
+        double fK1 = 1.0060 + 0.1150*cosN - 0.0088*cos2N + 0.0006*cos3N;
+        double uK1 = Math.toRadians(-8.86*sinN + 0.68*sin2N - 0.07*sin3N);
+        double fO1 = 1.0089 + 0.1871*cosN - 0.0147*cos2N + 0.0014*cos3N;
+        double uO1 = Math.toRadians(10.80*sinN - 1.34*sin2N + 0.19*sin3N);
+        double fK2 = 1.0241 + 0.2863*cosN + 0.0083*cos2N - 0.0015*cos3N;
+        double uK2 = Math.toRadians(-17.74*sinN + 0.68*sin2N - 0.04*sin3N);
+
+        for(int i = 0; i < index.length; i++){
+            String name = CONSTITUENTS[index[i]];
+            if(name.equals("Q1") || name.equals("O1")){
+                f[i] = fO1; u[i] = uO1;
+            }
+            else if(name.equals("K1")){
+                f[i] = fK1; u[i] = uK1;
+            }
+            else if(name.equals("K2")){
+                f[i] = fK2; u[i] = uK2;
+            }
+            else if(name.equals("2N2") || name.equals("MU2") || name.equals("N2") || name.equals("NU2")
+                    || name.equals("M2") || name.equals("L2") || name.equals("MS4")){
+                f[i] = fM2; u[i] = uM2;
+            }
+            else if(name.equals("MN4") || name.equals("M4")){
+                f[i] = fM2*fM2; u[i] = 2*uM2;
+            }
+            else if(name.equals("M6")){
+                f[i] = fM2*fM2*fM2; u[i] = 3*uM2;
+            }
+            else{
+                f[i] = 1; u[i] = 0;
+            }
+        }
+    }
+
+    /*
+    * Copy the nodal factors and angles (radians) in use at the given time into the arrays (used when fitting).
+     */
+    public void getNodal(long epochMinute, double[] fOut, double[] uOut){
+        updateNodal(epochMinute);
+        System.arraycopy(f, 0, fOut, 0, f.length);
+        System.arraycopy(u, 0, uOut, 0, u.length);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.Calendar;
+
+import android.database.Cursor;
+
+/*
+* Source of the (static) tide, sunrise/sunset and moon data for each day.
+*
+* Cursors returned have one row per day, positioned at the first row. Implemented by DayDatabase (the SQLite asset)
+* and TideStore (a memory-mapped binary file).
+ */
+public interface TideSource {
+
+    public Cursor getDayInfo(Calendar day);
+
+    /*
+    * Rows for every day between the two Calendar days (inclusive), ordered by date.
+     */
+    public Cursor getDaysInfo(Calendar from, Calendar to);
+
+    public Calendar getFirstDay();
+    public Calendar getLastDay();
+
+    public int getFirstEpochDay();
+    public int getLastEpochDay();
+}
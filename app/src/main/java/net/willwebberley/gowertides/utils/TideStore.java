@@ -0,0 +1,286 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/*
+* Read-only tide data backed by a memory-mapped binary file (written by tools/tidecompiler alongside the asset
+* database).
+*
+* The file is a 16 byte header (magic, version, first epoch day, number of days) followed by one fixed-width record
+* per day, so the record for a day is found directly from its epoch day:
+*   0  sunrise (short, minutes from midnight UTC; MISSING if there is no data for the day)
+*   2  sunset (short)
+*   4  number of tides (byte)
+*   5  (unused)
+*   6  moon (16 bytes, ISO-8859-1, zero-padded)
+*   22 up to 5 tides of: time (short, minutes from midnight UTC), height (short, cm), type (byte, 0 low 1 high)
+*
+* Cursors use the same columns as the compiled asset database, so the rest of the app reads them in the same way.
+ */
+public class TideStore implements TideSource {
+
+    public static final String ASSET_NAME = "tides.bin";
+
+    private static final int MAGIC = 0x47545344; // "GTSD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 48;
+    private static final int MOON_OFFSET = 6;
+    private static final int MOON_LENGTH = 16;
+    private static final int TIDES_OFFSET = 22;
+    private static final int TIDE_SIZE = 5;
+    private static final int TIDE_SLOTS = 5;
+    private static final short MISSING = Short.MIN_VALUE;
+
+    static final String[] COLUMNS = {"epoch_day", "year", "month", "day", "week_day", "moon", "sunrise", "sunset",
+            "tide1_time", "tide1_height", "tide1_type", "tide2_time", "tide2_height", "tide2_type",
+            "tide3_time", "tide3_height", "tide3_type", "tide4_time", "tide4_height", "tide4_type",
+            "tide5_time", "tide5_height", "tide5_type"};
+    private static final int FIRST_TIDE_COLUMN = 8;
+    private static final String[] WEEK_DAYS = {"Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"};
+
+    private final ByteBuffer buffer;
+    private final int firstEpochDay;
+    private final int dayCount;
+
+    private TideStore(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION){
+            throw new IOException("Not a version "+VERSION+" tide store");
+        }
+        firstEpochDay = buffer.getInt(8);
+        dayCount = buffer.getInt(12);
+        if(buffer.capacity() < HEADER_SIZE + dayCount*RECORD_SIZE){
+            throw new IOException("Tide store is truncated");
+        }
+    }
+
+    /*
+    * Open the tide store shipped in the app's assets, or return null if there isn't one (in which case DayDatabase
+    * should be used instead).
+    *
+    * Assets can't be mapped directly, so the file is first copied out to app storage (once per app version).
+     */
+    public static TideStore open(Context context){
+        try{
+            int appVersion = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+            File file = new File(context.getFilesDir(), "tides-"+appVersion+".bin");
+            if(!file.exists()){
+                copyAsset(context, file);
+            }
+            FileInputStream in = new FileInputStream(file);
+            try{
+                FileChannel channel = in.getChannel();
+                return new TideStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            finally{
+                in.close(); // the mapping stays valid after the channel is closed
+            }
+        }
+        catch(Exception e){
+            System.err.println("Tide store unavailable: "+e);
+            return null;
+        }
+    }
+
+    /*
+    * Copy the asset to the given file (via a temporary file, so a partial copy is never used), removing copies left
+    * by earlier app versions.
+     */
+    private static void copyAsset(Context context, File file) throws IOException {
+        File[] old = context.getFilesDir().listFiles();
+        if(old != null){
+            for(File f : old){
+                if(f.getName().startsWith("tides-") && f.getName().endsWith(".bin")){
+                    f.delete();
+                }
+            }
+        }
+        File temp = new File(file.getPath()+".tmp");
+        InputStream in = context.getAssets().open(ASSET_NAME);
+        OutputStream out = new FileOutputStream(temp);
+        try{
+            byte[] buf = new byte[8192];
+            int read;
+            while((read = in.read(buf)) != -1){
+                out.write(buf, 0, read);
+            }
+        }
+        finally{
+            in.close();
+            out.close();
+        }
+        if(!temp.renameTo(file)){
+            throw new IOException("Could not create "+file);
+        }
+    }
+
+    public Calendar getFirstDay(){
+        return Utilities.fromEpochDay(getFirstEpochDay());
+    }
+    public Calendar getLastDay(){
+        return Utilities.fromEpochDay(getLastEpochDay());
+    }
+    public int getFirstEpochDay(){
+        return firstEpochDay;
+    }
+    public int getLastEpochDay(){
+        return firstEpochDay + dayCount - 1;
+    }
+
+    public Cursor getDayInfo(Calendar day){
+        int epochDay = Utilities.toEpochDay(day);
+        return query(epochDay, epochDay);
+    }
+
+    public Cursor getDaysInfo(Calendar from, Calendar to){
+        return query(Utilities.toEpochDay(from), Utilities.toEpochDay(to));
+    }
+
+    /*
+    * Cursor over the days with data between the two epoch days (inclusive), positioned at the first row.
+     */
+    private Cursor query(int fromEpochDay, int toEpochDay){
+        int from = Math.max(fromEpochDay, firstEpochDay);
+        int to = Math.min(toEpochDay, getLastEpochDay());
+        int count = 0;
+        int[] days = new int[Math.max(0, to - from + 1)];
+        for(int epochDay = from; epochDay <= to; epochDay++){
+            if(buffer.getShort(offset(epochDay)) != MISSING){
+                days[count++] = epochDay;
+            }
+        }
+        Cursor c = new StoreCursor(days, count);
+        c.moveToFirst();
+        return c;
+    }
+
+    private int offset(int epochDay){
+        return HEADER_SIZE + (epochDay - firstEpochDay)*RECORD_SIZE;
+    }
+
+    /*
+    * Cursor reading straight from the mapped buffer. Only the moon and week day columns create Strings.
+     */
+    private class StoreCursor extends AbstractCursor {
+        private final int[] days;
+        private final int count;
+
+        StoreCursor(int[] days, int count){
+            this.days = days;
+            this.count = count;
+        }
+
+        @Override
+        public int getCount(){
+            return count;
+        }
+
+        @Override
+        public String[] getColumnNames(){
+            return COLUMNS;
+        }
+
+        @Override
+        public String getString(int column){
+            int epochDay = days[getPosition()];
+            if(column == 4){
+                return WEEK_DAYS[((epochDay % 7) + 7) % 7];
+            }
+            if(column == 5){
+                int start = offset(epochDay) + MOON_OFFSET;
+                int length = 0;
+                while(length < MOON_LENGTH && buffer.get(start + length) != 0){
+                    length++;
+                }
+                char[] chars = new char[length];
+                for(int i = 0; i < length; i++){
+                    chars[i] = (char)(buffer.get(start + i) & 0xff);
+                }
+                return new String(chars);
+            }
+            return isNull(column) ? null : Integer.toString(getInt(column));
+        }
+
+        @Override
+        public short getShort(int column){
+            return (short)getInt(column);
+        }
+
+        @Override
+        public int getInt(int column){
+            int epochDay = days[getPosition()];
+            int record = offset(epochDay);
+            switch(column){
+                case 0: return epochDay;
+                case 1: return Utilities.epochDayToDateKey(epochDay) / 10000;
+                case 2: return (Utilities.epochDayToDateKey(epochDay) / 100) % 100;
+                case 3: return Utilities.epochDayToDateKey(epochDay) % 100;
+                case 6: return buffer.getShort(record);
+                case 7: return buffer.getShort(record + 2);
+            }
+            if(column < FIRST_TIDE_COLUMN || isNull(column)){
+                return 0;
+            }
+            int tide = record + TIDES_OFFSET + ((column - FIRST_TIDE_COLUMN) / 3)*TIDE_SIZE;
+            switch((column - FIRST_TIDE_COLUMN) % 3){
+                case 0: return buffer.getShort(tide);
+                case 1: return buffer.getShort(tide + 2);
+                default: return buffer.get(tide + 4);
+            }
+        }
+
+        @Override
+        public long getLong(int column){
+            return getInt(column);
+        }
+
+        @Override
+        public float getFloat(int column){
+            return getInt(column);
+        }
+
+        @Override
+        public double getDouble(int column){
+            return getInt(column);
+        }
+
+        @Override
+        public boolean isNull(int column){
+            if(column < FIRST_TIDE_COLUMN){
+                return false;
+            }
+            int tides = buffer.get(offset(days[getPosition()]) + 4);
+            return (column - FIRST_TIDE_COLUMN) / 3 >= Math.min(tides, TIDE_SLOTS);
+        }
+    }
+}
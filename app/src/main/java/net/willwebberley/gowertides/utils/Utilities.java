@@ -18,166 +18,267 @@ project repository.
 package net.willwebberley.gowertides.utils;
 
 import android.database.Cursor;
-import android.os.AsyncTask;
 import net.willwebberley.gowertides.classes.Day;
 import net.willwebberley.gowertides.classes.Surf;
-import net.willwebberley.gowertides.classes.Tide;
+import net.willwebberley.gowertides.classes.Tides;
 import net.willwebberley.gowertides.classes.Weather;
-import net.willwebberley.gowertides.ui.DaysActivity;
 
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 
 public class Utilities {
 
     /*
-    * Create a new day instance from the database using the Calendar day specified
+    * Create a Day instance for each of the 'count' days starting at the Calendar day specified.
+    *
+    * All of the Days are built from a single query on each table (rather than three queries per day), by walking the
+    * date-ordered cursors alongside the days being created.
      */
-    public static Day createDay(DayDatabase db1, WeatherDatabase db2, Calendar cal, int location){
-        Day day = new Day(cal);
-        reprocessDay(db1, db2, day, location);
-        return day;
+    public static ArrayList<Day> createDays(TideSource db1, WeatherDatabase db2, Calendar from, int count, int location){
+        ArrayList<Day> days = new ArrayList<Day>(count);
+        if(count <= 0){
+            return days;
+        }
+        Calendar to = (Calendar)from.clone();
+        to.add(Calendar.DATE, count-1);
+
+        Cursor tideInfo = db1.getDaysInfo(from, to);
+        Cursor weatherInfo = db2.getWeatherInfo(from, to);
+        Cursor surfInfo = db2.getSurfInfo(from, to, location);
+
+        int firstEpochDay = toEpochDay(from);
+        for(int i = 0; i < count; i++){
+            int epochDay = firstEpochDay + i;
+            int key = epochDayToDateKey(epochDay);
+            days.add(processDay(epochDay, seekDay(tideInfo, -1, key), seekLastOfDay(weatherInfo, 1, key),
+                    seekDay(surfInfo, 3, key)));
+        }
+
+        try{
+            tideInfo.close();
+            weatherInfo.close();
+            surfInfo.close();
+        }catch(Exception e){System.err.println("Could not close DBs: "+e);}
+        return days;
     }
 
     /*
-    * Carry out the actual processing of the data from the database for the specified day.
-    * Used when first creating Days and also for refreshing data from the DBs after creation.
-    * (Does not return a Day - instead simply modifies a Day passed as a parameter).
+    * Just the Tides for each of the 'count' days starting at the Calendar day specified (Tides.NONE for a day with no
+    * tide data), from a single query on the tide table. Used where a Day's weather and surf aren't needed.
      */
-    public static void reprocessDay(DayDatabase db1, WeatherDatabase db2, Day day, int location){
-        Cursor tideInfo = db1.getDayInfo(day.getDay());
-        Cursor weatherInfo = db2.getWeatherInfo(day.getDay());
-        Cursor surfInfo = db2.getSurfInfo(day.getDay(), location);
+    public static Tides[] createTides(TideSource db, Calendar from, int count){
+        Tides[] tides = new Tides[Math.max(count, 0)];
+        if(count <= 0){
+            return tides;
+        }
+        Calendar to = (Calendar)from.clone();
+        to.add(Calendar.DATE, count-1);
 
+        Cursor tideInfo = db.getDaysInfo(from, to);
+        int firstEpochDay = toEpochDay(from);
+        for(int i = 0; i < count; i++){
+            int epochDay = firstEpochDay + i;
+            tides[i] = Tides.NONE;
+            try{
+                Cursor c = seekDay(tideInfo, -1, epochDayToDateKey(epochDay));
+                if(c != null){
+                    tides[i] = Tides.initTides(c, epochDay);
+                }
+            }catch(Exception e){}
+        }
+
+        try{
+            if(tideInfo != null){
+                tideInfo.close();
+            }
+        }catch(Exception e){System.err.println("Could not close DB: "+e);}
+        return tides;
+    }
+
+    /*
+    * Carry out the actual processing of the data from the database for the specified day (as days since the epoch),
+    * from cursors positioned at its tide row, its most recent weather row and its first (most recent) surf row. A null
+    * cursor means there is no data of that type for the day.
+     */
+    private static Day processDay(int epochDay, Cursor tideInfo, Cursor weatherInfo, Cursor surfInfo){
         Weather w = null;
         ArrayList<Surf> s = null;
-        ArrayList<Tide> t = null;
-        Boolean w_available = false;
-        Boolean s_available = false;
-        Boolean t_available = false;
-        Calendar sunrise = null, sunset = null;
+        Tides t = null;
+        int sunrise = Day.NO_TIME, sunset = Day.NO_TIME;
         String moon = null;
 
         try{
-            // TIDE INFO:
-            // 0year 1month 2day 3week_day 4sunrise 5sunset 6moon 7high1_time 8high1_height 9low1_time 10low1_height
-            // 11high2_time 12high2_height 13low2_time 14low2_height 15high3_time 16high3_height
-            sunrise = (Calendar.getInstance());
-            sunrise.setTime(Constants.getDateFormat().parse(tideInfo.getString(4).trim().replace("BST", "").replace("GMT","")));
-            sunset = Calendar.getInstance();
-            sunset.setTime(Constants.getDateFormat().parse(tideInfo.getString(5).replace("BST", "").trim().replace("GMT","")));
-            moon = tideInfo.getString(6);
+            if(isCompiledTideRow(tideInfo)){
+                // Compiled asset: times are stored as minutes from midnight UTC
+                // Predicted days (see PredictedTideSource) have no sunrise or sunset
+                if(!tideInfo.isNull(tideInfo.getColumnIndex("sunrise"))){
+                    sunrise = epochDay*1440 + tideInfo.getInt(tideInfo.getColumnIndex("sunrise"));
+                    sunset = epochDay*1440 + tideInfo.getInt(tideInfo.getColumnIndex("sunset"));
+                }
+                moon = tideInfo.getString(tideInfo.getColumnIndex("moon"));
+            }
+            else{
+                // TIDE INFO:
+                // 0year 1month 2day 3week_day 4sunrise 5sunset 6moon 7high1_time 8high1_height 9low1_time 10low1_height
+                // 11high2_time 12high2_height 13low2_time 14low2_height 15high3_time 16high3_height
+                sunrise = tideEpochMinute(epochDay, parseTideTime(tideInfo.getString(4)));
+                sunset = tideEpochMinute(epochDay, parseTideTime(tideInfo.getString(5)));
+                moon = tideInfo.getString(6);
+            }
         }catch(Exception e){
           System.out.println(e);
         }
         try{
             w = Weather.initWeather(weatherInfo);
-            w_available = true;
         }catch(Exception e){}
         try{
             s = Surf.initSurf(surfInfo);
-            s_available = true;
         }catch(Exception e){}
         try{
-            t = Tide.initTides(tideInfo, day.getDay());
-            t_available = true;
+            t = Tides.initTides(tideInfo, epochDay);
         }catch(Exception e){}
 
-        try{
-            tideInfo.close();
-            weatherInfo.close();
-            surfInfo.close();
-        }catch(Exception e){System.err.println("Could not close DBs: "+e);}
+        return new Day(epochDay, sunrise, sunset, moon, t, w, s);
+    }
 
-        day.setGeneral(sunrise,sunset,moon);
-        day.setSurf(s, s_available);
-        day.setTide(t, t_available);
-        day.setWeather(w, w_available);
+    /*
+    * Check whether a tide row comes from a compiled asset (numeric times and heights) rather than the older text one.
+     */
+    public static boolean isCompiledTideRow(Cursor tideInfo){
+        return tideInfo.getColumnIndex("tide1_time") >= 0;
     }
 
+    /*
+    * Times are held as minutes since the epoch, and shown in UK time (the tide tables' own time zone), which is how
+    * they have always been shown.
+    *
+    * Minutes from the start of the day (as days since the epoch) in UK time of a time (minutes since the epoch).
+     */
+    public static int tideMinuteOfDay(int epochDay, int epochMinute){
+        return epochMinute + Constants.getTideTimeZone().getOffset(epochMinute*60000L)/60000 - epochDay*1440;
+    }
+
+    /*
+    * Minutes since the epoch of a UK time (minutes from midnight) on the day.
+     */
+    public static int tideEpochMinute(int epochDay, int localMinutes){
+        int guess = epochDay*1440 + localMinutes;
+        return guess - Constants.getTideTimeZone().getOffset(guess*60000L)/60000;
+    }
 
     /*
-     * AsyncTask to fetch new surf and weather data. Notifies parent Activity upon completion.
+    * A time (minutes since the epoch) as HH:mm in UK time. (Clock.formatTime() writes it without allocating.)
      */
-    public static  class DataGetter extends AsyncTask<Object, Integer, Boolean> {
+    public static String formatTideTime(int epochMinute){
+        char[] time = new char[5];
+        Clock.formatTime(epochMinute, time, 0);
+        return new String(time);
+    }
 
-        private DaysActivity parent;
-        private int location;
-        private WeatherDatabase db;
+    /*
+    * Minutes from midnight of a time in an older (text) tide asset, e.g. "6:42 AM BST".
+     */
+    public static int parseTideTime(String text) throws ParseException {
+        Calendar time = Calendar.getInstance();
+        time.setTime(Constants.getDateFormat().parse(text.replace("BST", "").replace("GMT", "").trim()));
+        return time.get(Calendar.HOUR_OF_DAY)*60 + time.get(Calendar.MINUTE);
+    }
 
-        public DataGetter(DaysActivity d, int l, WeatherDatabase w){
-            parent = d;
-            location = l;
-            db = w;
-        }
+    /*
+    * Integer key (yyyymmdd) for a Calendar day, used to compare and query days without Calendar arithmetic.
+     */
+    public static int dateKey(Calendar cal){
+        return cal.get(Calendar.YEAR)*10000 + (cal.get(Calendar.MONTH)+1)*100 + cal.get(Calendar.DAY_OF_MONTH);
+    }
 
-        @Override
-        protected Boolean doInBackground(Object... arg0) {
-            System.out.println("Starting download...");
-
-            // Prepare the readers:
-            BufferedReader reader = null;
-            StringBuffer completeData = new StringBuffer();
-
-            // Get some data on the device
-            String androidVersion = android.os.Build.VERSION.RELEASE;
-            String model = android.os.Build.MANUFACTURER+"-"+android.os.Build.MODEL.replace(" ", "-");
-
-            // Prepare the query URL:
-            String address = Constants.getDataURL()+"?dev="+model+"&ver="+androidVersion+"&loc="+location;
-
-            // Make the request:
-            try {
-                URL url = new URL(address);
-                HttpURLConnection con = (HttpURLConnection) url.openConnection();
-                InputStream in = con.getInputStream();
-                reader = new BufferedReader(new InputStreamReader(in));
-                String line = "";
-                while ((line = reader.readLine()) != null) {
-                    completeData.append(line);
-                }
+    /*
+    * Number of days since 1970-01-01 for a (Gregorian) year, month (1-12) and day of month. Pure integer arithmetic,
+    * so no time zone or Calendar is involved.
+     */
+    public static int toEpochDay(int year, int month, int day){
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+    public static int toEpochDay(Calendar cal){
+        return toEpochDay(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH)+1, cal.get(Calendar.DAY_OF_MONTH));
+    }
 
-                // Now save the data returned by the server:
-                System.out.println("Finished. Adding to db...");
+    /*
+    * Calendar (at midnight, local time) for a number of days since 1970-01-01.
+     */
+    public static Calendar fromEpochDay(int epochDay){
+        int key = epochDayToDateKey(epochDay);
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(key/10000, (key/100)%100 - 1, key%100);
+        return cal;
+    }
 
-                Boolean success = db.insertAllData(completeData.toString());
+    /*
+    * Date key (yyyymmdd, as dateKey()) for a number of days since 1970-01-01, without creating a Calendar.
+     */
+    public static int epochDayToDateKey(int epochDay){
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year*10000 + month*100 + day;
+    }
 
-                // All done.
-                System.out.println("Done.");
-                if(!success){
-                    return false;
-                }
-            }
-            catch (IOException e) {
-                e.printStackTrace();
-                return false;
-            }
-            finally {
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return false;
-                    }
-                }
-            }
-            return true;
+    /*
+    * Key of the cursor's current row, where the year, month and day columns start at yearColumn. A negative yearColumn
+    * looks the column up by name on each row (tide cursors may mix text, compiled and predicted rows, which put the
+    * year in different places).
+     */
+    private static int rowKey(Cursor c, int yearColumn){
+        if(yearColumn < 0){
+            yearColumn = c.getColumnIndex("year");
         }
+        return c.getInt(yearColumn)*10000 + c.getInt(yearColumn+1)*100 + c.getInt(yearColumn+2);
+    }
 
-        /*
-        * On finish, update day fragments to show surf and flag the process as complete.
-        *
-        * If unsuccessful, for any reason, show an error.
-         */
-        protected void onPostExecute(Boolean result) {
-            parent.notifySyncFinished(result);
+    /*
+    * Move a date-ordered cursor forward to the first row for the day key. Returns the cursor if it now points at a row
+    * for that day, or null if there is no such row.
+     */
+    private static Cursor seekDay(Cursor c, int yearColumn, int key){
+        if(c == null){
+            return null;
         }
+        while(!c.isAfterLast() && rowKey(c, yearColumn) < key){
+            c.moveToNext();
+        }
+        if(!c.isAfterLast() && rowKey(c, yearColumn) == key){
+            return c;
+        }
+        return null;
     }
 
-
+    /*
+    * As seekDay(), but leaves the cursor at the last row for the day.
+     */
+    private static Cursor seekLastOfDay(Cursor c, int yearColumn, int key){
+        if(seekDay(c, yearColumn, key) == null){
+            return null;
+        }
+        while(!c.isLast()){
+            c.moveToNext();
+            if(rowKey(c, yearColumn) != key){
+                c.moveToPrevious();
+                break;
+            }
+        }
+        return c;
+    }
 
 }
@@ -17,29 +17,161 @@ project repository.
 
 package net.willwebberley.gowertides.utils;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import net.willwebberley.gowertides.classes.Weather;
 
 public class WeatherDatabase extends SQLiteOpenHelper{
 
     // Version 2: added 'surf' table
     // Version 3: added 'location' column to 'surf' table
-	private static final int DATABASE_VERSION = 3;
+    // Version 4: added 'epoch_day' column (days since 1970-01-01) and indexes to both tables
+    // Version 5: added 'sync_state' table
+    // Version 6: added 'forecast_timestamp' column to 'sync_state' table
+    // Version 7: added 'icon' column (asset name of the weather icon, taken from icon_url) to 'weather' table
+	private static final int DATABASE_VERSION = 7;
 	private static final String DATABASE_NAME = "weather";
+
+    // All values are bound as arguments, so each SQL string is parsed once per connection and then reused (and text
+    // containing quotes can't break the statement)
+    private static final String INSERT_WEATHER = "INSERT INTO weather (timestamp, year, month, day, max_temp_c, " +
+            "max_temp_f, min_temp_c, min_temp_f, wind_speed_miles, wind_speed_km, wind_direction, wind_degree, " +
+            "icon_url, description, precipitation, epoch_day, icon) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String INSERT_SURF = "INSERT INTO surf (location, timestamp, local_time, year, month, day, " +
+            "hour, minute, faded_rating, solid_rating, min_surf, abs_min_surf, max_surf, abs_max_surf, swell_height, " +
+            "swell_period, swell_angle, swell_direction, swell_chart_url, period_chart_url, wind_chart_url, " +
+            "pressure_chart_url, sst_chart_url, epoch_day) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    // Surf request timestamps are shared by all locations, so rows are only replaced for the location being stored
+    private static final String DELETE_SURF = "DELETE FROM surf WHERE location = ? AND timestamp = ?";
+    private static final String SELECT_WEATHER_DAY = "SELECT * FROM weather WHERE epoch_day = ? ORDER BY timestamp";
+    private static final String SELECT_SURF_DAY = "SELECT * FROM surf WHERE location = ? AND epoch_day = ? ORDER BY timestamp DESC";
+    private static final String SELECT_WEATHER_DAYS = "SELECT * FROM weather WHERE epoch_day BETWEEN ? AND ? ORDER BY epoch_day, timestamp";
+    private static final String SELECT_SURF_DAYS = "SELECT * FROM surf WHERE location = ? AND epoch_day BETWEEN ? AND ? ORDER BY epoch_day, timestamp DESC";
+
+    // Retention (see applyRetention()). The correlated MAX(timestamp) lookups are answered from the day indexes.
+    private static final String PURGE_WEATHER = "DELETE FROM weather WHERE epoch_day < ?";
+    private static final String PURGE_SURF = "DELETE FROM surf WHERE epoch_day < ?";
+    private static final String DELETE_SUPERSEDED_WEATHER = "DELETE FROM weather WHERE timestamp < " +
+            "(SELECT MAX(w.timestamp) FROM weather w WHERE w.epoch_day = weather.epoch_day)";
+    private static final String DELETE_SUPERSEDED_SURF = "DELETE FROM surf WHERE timestamp < " +
+            "(SELECT MAX(s.timestamp) FROM surf s WHERE s.location = surf.location AND s.epoch_day = surf.epoch_day)";
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Sync state (see SyncClient)
+    private static final String SELECT_WEATHER_WATERMARK = "SELECT MAX(timestamp) FROM weather";
+    private static final String SELECT_SURF_WATERMARK = "SELECT MAX(timestamp) FROM surf WHERE location = ?";
+    private static final String SELECT_SYNC_ETAG = "SELECT etag FROM sync_state WHERE location = ?";
+    private static final String SELECT_SYNCED_AT = "SELECT synced_at FROM sync_state WHERE location = ?";
+    private static final String SELECT_FORECAST_TIMESTAMP = "SELECT forecast_timestamp FROM sync_state WHERE location = ?";
+    private static final String REPLACE_SYNC_STATE = "INSERT OR REPLACE INTO sync_state (location, etag, synced_at, " +
+            "forecast_timestamp) VALUES (?,?,?,?)";
+
+    // JSON field names in the order of the insert parameters above, with their types (Long, Double or String)
+    private static final String[] WEATHER_FIELDS = {"timestamp", "year", "month", "day", "max_temp_c", "max_temp_f",
+            "min_temp_c", "min_temp_f", "wind_speed_miles", "wind_speed_km", "wind_direction", "wind_degree",
+            "icon_url", "weather_description", "precipitation"};
+    private static final char[] WEATHER_TYPES = "LLLLLLLLLLSLSSD".toCharArray();
+    private static final String[] SURF_FIELDS = {"location", "timestamp", "local_time", "year", "month", "day", "hour",
+            "minute", "faded_rating", "solid_rating", "min_surf_height", "abs_min_surf_height", "max_surf_height",
+            "abs_max_surf_height", "swell_height", "swell_period", "swell_angle", "swell_direction", "swell_chart",
+            "period_chart", "wind_chart", "pressure_chart", "sst_chart"};
+    private static final char[] SURF_TYPES = "LLLLLLLLLLDDDDDDDSSSSSS".toCharArray();
+    private static final HashMap<String, Integer> WEATHER_INDEX = indexFields(WEATHER_FIELDS);
+    private static final HashMap<String, Integer> SURF_INDEX = indexFields(SURF_FIELDS);
+
+    // Statements compiled for the writable connection (see compileStatements())
+    private SQLiteDatabase statementDb;
+    private SQLiteStatement weatherInsert, surfInsert, surfDelete;
+
+    // State of the current insertAllData() (see loadWatermarks())
+    private long weatherWatermark, surfWatermark;
+    private int rowsStored;
 	
+    private static WeatherDatabase instance;
+
 	public WeatherDatabase(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+            enableWriteAheadLogging();
+        }
 	}
 
+    /*
+    * In write-ahead logging mode the sync writes to the log while the UI reads from the database file, so reads (which
+    * Android runs on a pool of reader connections, separate from the one writer connection) never wait for a sync to
+    * commit. From Jelly Bean the helper opens the database in this mode; on Honeycomb it is switched in onOpen().
+    * Older devices keep the rollback journal.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /*
+    * Start a write transaction that doesn't lock out readers (BEGIN IMMEDIATE, rather than the EXCLUSIVE of
+    * beginTransaction()). Transactions nest as usual.
+     */
+    private static void beginWrite(SQLiteDatabase db) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB){
+            beginNonExclusive(db);
+        }
+        else{
+            db.beginTransaction();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void beginNonExclusive(SQLiteDatabase db) {
+        db.beginTransactionNonExclusive();
+    }
+
+    /*
+    * Database shared by the app and the background sync (one helper, so one connection, per process).
+     */
+    public static synchronized WeatherDatabase getInstance(Context context) {
+        if(instance == null){
+            instance = new WeatherDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /*
+    * Deleted forecasts leave free pages in the file, so the database uses incremental auto_vacuum and they are
+    * released after each sync (see applyRetention()). The mode can only be set before the first table is created, and
+    * not while write-ahead logging is on (as it already is here from Jelly Bean), so otherwise the file is converted by
+    * the next retention pass.
+     */
 	@Override
 	public void onCreate(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+		createWeatherTable(db);
+        createSurfTable(db);
+        createIndexes(db);
+        createSyncStateTable(db);
+	}
+
+    /*
+    * New columns go on the end of the tables, as the cursors returned are read by column position.
+     */
+	private void createWeatherTable(SQLiteDatabase db) {
 		String create = "CREATE TABLE IF NOT EXISTS weather (timestamp INTEGER, " +
 				"year INTEGER," +
 				"month INTEGER," +
@@ -54,8 +186,13 @@ public class WeatherDatabase extends SQLiteOpenHelper{
 				"wind_degree INTEGER," +
 				"icon_url TEXT," +
 				"description TEXT," +
-				"precipitation FLOAT)";
+				"precipitation FLOAT," +
+				"epoch_day INTEGER," +
+				"icon TEXT)";
 		db.execSQL(create);
+	}
+
+	private void createSurfTable(SQLiteDatabase db) {
         String create2 = "CREATE TABLE IF NOT EXISTS surf (" +
                 "location INTEGER," +
                 "timestamp INTEGER," +
@@ -79,46 +216,307 @@ public class WeatherDatabase extends SQLiteOpenHelper{
                 "period_chart_url TEXT," +
                 "wind_chart_url TEXT," +
                 "pressure_chart_url TEXT," +
-                "sst_chart_url TEXT)";
+                "sst_chart_url TEXT," +
+                "epoch_day INTEGER)";
         db.execSQL(create2);
 	}
 
+    /*
+    * ETag of the last successful sync for each location, when it was (ms since the epoch) and the newest surf forecast
+    * timestamp it left in the database.
+     */
+    private void createSyncStateTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS sync_state (location INTEGER PRIMARY KEY, etag TEXT, synced_at INTEGER, " +
+                "forecast_timestamp INTEGER)");
+    }
+
+    /*
+    * Days are looked up by epoch_day (and surf by location), then read in timestamp order, so these indexes answer the
+    * range queries below without scanning or sorting the tables.
+     */
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS weather_day ON weather (epoch_day, timestamp)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS surf_location_day ON surf (location, epoch_day, timestamp DESC)");
+    }
+
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        System.out.println("upgrading db");
-		db.execSQL("DROP TABLE IF EXISTS weather");
-        db.execSQL("DROP TABLE IF EXISTS surf");
-        onCreate(db);
+        System.out.println("upgrading db from "+oldVersion+" to "+newVersion);
+        // Surf rows from before version 3 have no location, so can't be kept
+        if(oldVersion < 3){
+            db.execSQL("DROP TABLE IF EXISTS surf");
+            createSurfTable(db);
+        }
+        // Version 4: keep existing forecasts, adding the epoch_day column and indexes
+        if(oldVersion < 4){
+            addEpochDay(db, "weather");
+            if(oldVersion >= 3){
+                addEpochDay(db, "surf");
+            }
+            createIndexes(db);
+        }
+        if(oldVersion < 5){
+            createSyncStateTable(db);
+        }
+        else if(oldVersion < 6){
+            db.execSQL("ALTER TABLE sync_state ADD COLUMN forecast_timestamp INTEGER");
+        }
+        if(oldVersion < 7){
+            addWeatherIcons(db);
+        }
 	}
+
+    /*
+    * Add the 'icon' column, filling it in for the weather already stored (there are only a few distinct icon URLs, so
+    * each is resolved once and applied to all of its rows).
+     */
+    private void addWeatherIcons(SQLiteDatabase db){
+        db.execSQL("ALTER TABLE weather ADD COLUMN icon TEXT");
+        SQLiteStatement update = db.compileStatement("UPDATE weather SET icon = ? WHERE icon_url = ?");
+        Cursor c = db.rawQuery("SELECT DISTINCT icon_url FROM weather WHERE icon_url IS NOT NULL", null);
+        while(c.moveToNext()){
+            String icon = Weather.getIconName(c.getString(0));
+            if(icon == null){
+                continue;
+            }
+            update.bindString(1, icon);
+            update.bindString(2, c.getString(0));
+            update.execute();
+        }
+        c.close();
+        update.close();
+    }
+
+    private void addEpochDay(SQLiteDatabase db, String table){
+        db.execSQL("ALTER TABLE "+table+" ADD COLUMN epoch_day INTEGER");
+        db.execSQL("UPDATE "+table+" SET epoch_day = CAST(julianday(year || '-' || substr('0' || month, -2, 2) || '-' || substr('0' || day, -2, 2)) - 2440587.5 AS INTEGER)");
+    }
 	
-	public Boolean insertWeatherData(String data, SQLiteDatabase db){
+	/*
+	* Compile the insert and delete statements for the given (writable) connection, unless they already have been.
+	* Values are bound to these for each row, rather than building and parsing a new SQL string each time.
+	 */
+	private synchronized void compileStatements(SQLiteDatabase db){
+		if(statementDb == db){
+			return;
+		}
+		closeStatements();
+		weatherInsert = db.compileStatement(INSERT_WEATHER);
+		surfInsert = db.compileStatement(INSERT_SURF);
+		surfDelete = db.compileStatement(DELETE_SURF);
+		statementDb = db;
+	}
+
+	private synchronized void closeStatements(){
+		if(statementDb != null){
+			weatherInsert.close();
+			surfInsert.close();
+			surfDelete.close();
+			statementDb = null;
+		}
+	}
+
+    /*
+    * On Honeycomb to Ice Cream Sandwich, write-ahead logging is turned on here (see enableWriteAheadLogging()).
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if(db.isReadOnly()){
+            return;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN){
+            enableWriteAheadLogging(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /*
+    * Only the newest forecast for each day (and location, for surf) is ever read, so older ones are deleted, as are days
+    * more than historyDays in the past. The freed pages are then returned to the file system.
+    *
+    * This runs on the sync's thread, so it is also where a database not yet in incremental auto_vacuum mode (see
+    * onCreate()) is converted, by a one-off VACUUM.
+     */
+    public void applyRetention(int historyDays){
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] oldest = {Integer.toString(Utilities.toEpochDay(Calendar.getInstance()) - historyDays)};
+        beginWrite(db);
+        try{
+            db.execSQL(PURGE_WEATHER, oldest);
+            db.execSQL(PURGE_SURF, oldest);
+            db.execSQL(DELETE_SUPERSEDED_WEATHER);
+            db.execSQL(DELETE_SUPERSEDED_SURF);
+            db.setTransactionSuccessful();
+        }
+        catch(Exception e){
+            System.err.println("Could not apply retention: "+e);
+        }
+        finally{
+            db.endTransaction();
+        }
+
+        if(queryLong(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL){
+            convertToIncrementalVacuum(db);
+            return;
+        }
+        // incremental_vacuum frees pages as it is stepped, so run the cursor to the end
+        Cursor c = db.rawQuery("PRAGMA incremental_vacuum", null);
+        while(c.moveToNext()){}
+        c.close();
+    }
+
+    /*
+    * VACUUM can't change the auto_vacuum mode of a database in write-ahead logging mode, so from Jelly Bean logging is
+    * turned off while it runs. On Honeycomb to Ice Cream Sandwich it can't be turned off again once on, so databases
+    * there that were created before auto_vacuum was used stay as they are.
+     */
+    private static void convertToIncrementalVacuum(SQLiteDatabase db){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+            vacuumWithoutLogging(db);
+        }
+        else if(Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB){
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void vacuumWithoutLogging(SQLiteDatabase db){
+        boolean logging = db.isWriteAheadLoggingEnabled();
+        if(logging){
+            db.disableWriteAheadLogging();
+        }
+        try{
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+        finally{
+            if(logging){
+                db.enableWriteAheadLogging();
+            }
+        }
+    }
+
+    /*
+    * Watermarks for a sync: the newest weather timestamp stored, and the newest surf timestamp stored for the location.
+    * Weather rows at or before the watermark are already stored and are skipped. Surf rows before it are skipped, but
+    * rows with the same timestamp still replace the stored ones, as before.
+     */
+    private void loadWatermarks(SQLiteDatabase db, int location){
+        rowsStored = 0;
+        weatherWatermark = queryLong(db, SELECT_WEATHER_WATERMARK, null);
+        surfWatermark = queryLong(db, SELECT_SURF_WATERMARK, new String[]{Integer.toString(location)});
+    }
+
+    /*
+    * Newest forecast timestamp stored for the location (sent to the server so it can leave out older rows), or 0 if
+    * there is none.
+     */
+    public long getWatermark(int location){
+        SQLiteDatabase db = this.getReadableDatabase();
+        return Math.min(queryLong(db, SELECT_WEATHER_WATERMARK, null),
+                queryLong(db, SELECT_SURF_WATERMARK, new String[]{Integer.toString(location)}));
+    }
+
+    /*
+    * Number of new rows stored by the last insertAllData().
+     */
+    public int getRowsStored(){
+        return rowsStored;
+    }
+
+    /*
+    * ETag of the last successful sync for the location, or null.
+     */
+    public String getSyncEtag(int location){
+        Cursor c = this.getReadableDatabase().rawQuery(SELECT_SYNC_ETAG, new String[]{Integer.toString(location)});
+        String etag = c.moveToFirst() ? c.getString(0) : null;
+        c.close();
+        return etag;
+    }
+
+    /*
+    * Time of the last successful sync for the location (ms since the epoch), or 0 if it has never been synced.
+     */
+    public long getLastSynced(int location){
+        return queryLong(this.getReadableDatabase(), SELECT_SYNCED_AT, new String[]{Integer.toString(location)});
+    }
+
+    /*
+    * Newest surf forecast timestamp stored by the last successful sync for the location, or 0.
+     */
+    public long getForecastTimestamp(int location){
+        return queryLong(this.getReadableDatabase(), SELECT_FORECAST_TIMESTAMP, new String[]{Integer.toString(location)});
+    }
+
+    /*
+    * True if the newest forecast the last sync stored for the location has since gone from the database (e.g. the data
+    * was cleared), so the sync's data is no longer all there however recent it was.
+     */
+    public boolean isForecastMissing(int location){
+        SQLiteDatabase db = this.getReadableDatabase();
+        String[] args = new String[]{Integer.toString(location)};
+        return queryLong(db, SELECT_SURF_WATERMARK, args) < queryLong(db, SELECT_FORECAST_TIMESTAMP, args);
+    }
+
+    public void setSyncState(int location, String etag, long syncedAt){
+        SQLiteDatabase db = this.getWritableDatabase();
+        long forecast = queryLong(db, SELECT_SURF_WATERMARK, new String[]{Integer.toString(location)});
+        db.execSQL(REPLACE_SYNC_STATE, new Object[]{location, etag, syncedAt, forecast});
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql, String[] args){
+        Cursor c = db.rawQuery(sql, args);
+        long value = c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : 0;
+        c.close();
+        return value;
+    }
+
+	@Override
+	public synchronized void close(){
+		closeStatements();
+		super.close();
+	}
+
+	public Boolean insertWeatherData(JSONArray jsonArray, SQLiteDatabase db){
 		try{
-			JSONArray jsonArray = new JSONArray(data);
+			compileStatements(db);
+			SQLiteStatement insert = weatherInsert;
 			for (int i = 0; i < jsonArray.length(); i++){
 				JSONObject array = jsonArray.getJSONObject(i);
 				JSONObject jsonObject = array.getJSONObject("weather");
-				
-				long timestamp = jsonObject.getLong("timestamp");
-				int year = jsonObject.getInt("year");
-				int month = jsonObject.getInt("month");
-				int day = jsonObject.getInt("day");
-				int max_temp_c = jsonObject.getInt("max_temp_c");
-				int max_temp_f = jsonObject.getInt("max_temp_f");
-				int min_temp_c = jsonObject.getInt("min_temp_c");
-				int min_temp_f = jsonObject.getInt("min_temp_f");
-				int wind_speed_miles = jsonObject.getInt("wind_speed_miles");
-				int wind_speed_km = jsonObject.getInt("wind_speed_km");
-				String wind_direction = jsonObject.getString("wind_direction");
-				int wind_degree = jsonObject.getInt("wind_degree");
-				String icon_url = jsonObject.getString("icon_url");
-				String description = jsonObject.getString("weather_description");
-				Double precipitation = jsonObject.getDouble("precipitation");
-				
-				String inS = "INSERT INTO weather VALUES(" +
-						timestamp+","+year+","+month+","+day+","+max_temp_c+","+max_temp_f+","+min_temp_c+
-						","+min_temp_f+","+wind_speed_miles+","+wind_speed_km+",'"+wind_direction+"',"+
-						wind_degree+",'"+icon_url+"','"+description+"',"+precipitation+")";
-				db.execSQL(inS);
+				if(jsonObject.getLong("timestamp") <= weatherWatermark){
+					continue;
+				}
+
+				insert.clearBindings();
+				insert.bindLong(1, jsonObject.getLong("timestamp"));
+				insert.bindLong(2, jsonObject.getInt("year"));
+				insert.bindLong(3, jsonObject.getInt("month"));
+				insert.bindLong(4, jsonObject.getInt("day"));
+				insert.bindLong(5, jsonObject.getInt("max_temp_c"));
+				insert.bindLong(6, jsonObject.getInt("max_temp_f"));
+				insert.bindLong(7, jsonObject.getInt("min_temp_c"));
+				insert.bindLong(8, jsonObject.getInt("min_temp_f"));
+				insert.bindLong(9, jsonObject.getInt("wind_speed_miles"));
+				insert.bindLong(10, jsonObject.getInt("wind_speed_km"));
+				insert.bindString(11, jsonObject.getString("wind_direction"));
+				insert.bindLong(12, jsonObject.getInt("wind_degree"));
+				insert.bindString(13, jsonObject.getString("icon_url"));
+				insert.bindString(14, jsonObject.getString("weather_description"));
+				insert.bindDouble(15, jsonObject.getDouble("precipitation"));
+				insert.bindLong(16, Utilities.toEpochDay(jsonObject.getInt("year"), jsonObject.getInt("month"), jsonObject.getInt("day")));
+				String icon = Weather.getIconName(jsonObject.getString("icon_url"));
+				if(icon != null){
+					insert.bindString(17, icon);
+				}
+				insert.executeInsert();
+				rowsStored ++;
 			}
 		}
 		catch(Exception e){
@@ -128,13 +526,18 @@ public class WeatherDatabase extends SQLiteOpenHelper{
 		return true;
 	}
 
-    public Boolean insertSurfData(String data, SQLiteDatabase db){
+    public Boolean insertSurfData(JSONArray jsonArray, SQLiteDatabase db){
         /* Delete any current versions with the same request timestamps */
         try{
-            JSONArray jsonArray = new JSONArray(data);
+            compileStatements(db);
             for (int i = 0; i < jsonArray.length(); i++){
                 JSONObject surf = jsonArray.getJSONObject(i);
-                db.execSQL("DELETE FROM surf WHERE timestamp = "+surf.getLong("timestamp"));
+                if(surf.getLong("timestamp") < surfWatermark){
+                    continue;
+                }
+                surfDelete.bindLong(1, surf.getInt("location"));
+                surfDelete.bindLong(2, surf.getLong("timestamp"));
+                surfDelete.execute();
             }
         }
         catch(Exception e){
@@ -143,41 +546,41 @@ public class WeatherDatabase extends SQLiteOpenHelper{
 
         /* Now actually do the inserts! */
         try{
-            JSONArray jsonArray = new JSONArray(data);
+            compileStatements(db);
+            SQLiteStatement insert = surfInsert;
             for (int i = 0; i < jsonArray.length(); i++){
                 JSONObject surf = jsonArray.getJSONObject(i);
-                int location = surf.getInt("location");
-                long timestamp = surf.getLong("timestamp");
-                long localtime = surf.getLong("local_time");
-                int year = surf.getInt("year");
-                int month = surf.getInt("month");
-                int day = surf.getInt("day");
-                int hour = surf.getInt("hour");
-                int minute = surf.getInt("minute");
-                int faded_rating = surf.getInt("faded_rating");
-                int solid_rating = surf.getInt("solid_rating");
-                double min_surf = surf.getDouble("min_surf_height");
-                double abs_min_surf = surf.getDouble("abs_min_surf_height");
-                double max_surf = surf.getDouble("max_surf_height");
-                double abs_max_surf = surf.getDouble("abs_max_surf_height");
-                double swell_height = surf.getDouble("swell_height");
-                double swell_period = surf.getDouble("swell_period");
-                double swell_angle = surf.getDouble("swell_angle");
-                String swell_direction = surf.getString("swell_direction");
-                String swell_chart_url = surf.getString("swell_chart");
-                String period_chart_url = surf.getString("period_chart");
-                String wind_chart_url = surf.getString("wind_chart");
-                String pressure_chart_url = surf.getString("pressure_chart");
-                String sst_chart_url = surf.getString("sst_chart");
-
-
-
-                String inS = "INSERT INTO surf VALUES(" +
-                        location+","+timestamp+","+localtime+","+year+","+month+","+day+","+hour+","+minute+","+faded_rating+","+
-                        solid_rating+","+min_surf+","+abs_min_surf+","+max_surf+","+
-                        abs_max_surf+","+swell_height+","+swell_period+","+swell_angle+",'"+swell_direction+"','"+
-                        swell_chart_url+"','"+period_chart_url+"','"+wind_chart_url+"','"+pressure_chart_url+"','"+sst_chart_url+"')";
-                db.execSQL(inS);
+                if(surf.getLong("timestamp") < surfWatermark){
+                    continue;
+                }
+
+                insert.clearBindings();
+                insert.bindLong(1, surf.getInt("location"));
+                insert.bindLong(2, surf.getLong("timestamp"));
+                insert.bindLong(3, surf.getLong("local_time"));
+                insert.bindLong(4, surf.getInt("year"));
+                insert.bindLong(5, surf.getInt("month"));
+                insert.bindLong(6, surf.getInt("day"));
+                insert.bindLong(7, surf.getInt("hour"));
+                insert.bindLong(8, surf.getInt("minute"));
+                insert.bindLong(9, surf.getInt("faded_rating"));
+                insert.bindLong(10, surf.getInt("solid_rating"));
+                insert.bindDouble(11, surf.getDouble("min_surf_height"));
+                insert.bindDouble(12, surf.getDouble("abs_min_surf_height"));
+                insert.bindDouble(13, surf.getDouble("max_surf_height"));
+                insert.bindDouble(14, surf.getDouble("abs_max_surf_height"));
+                insert.bindDouble(15, surf.getDouble("swell_height"));
+                insert.bindDouble(16, surf.getDouble("swell_period"));
+                insert.bindDouble(17, surf.getDouble("swell_angle"));
+                insert.bindString(18, surf.getString("swell_direction"));
+                insert.bindString(19, surf.getString("swell_chart"));
+                insert.bindString(20, surf.getString("period_chart"));
+                insert.bindString(21, surf.getString("wind_chart"));
+                insert.bindString(22, surf.getString("pressure_chart"));
+                insert.bindString(23, surf.getString("sst_chart"));
+                insert.bindLong(24, Utilities.toEpochDay(surf.getInt("year"), surf.getInt("month"), surf.getInt("day")));
+                insert.executeInsert();
+                rowsStored ++;
             }
         }
         catch(Exception e){
@@ -187,7 +590,7 @@ public class WeatherDatabase extends SQLiteOpenHelper{
         return true;
     }
 
-    public Boolean insertAllData(String data){
+    public Boolean insertAllData(String data, int location){
         JSONObject jsonArray = null;
         JSONArray weatherArray = null;
         JSONArray surfArray = null;
@@ -204,12 +607,11 @@ public class WeatherDatabase extends SQLiteOpenHelper{
 
         SQLiteDatabase db = this.getWritableDatabase();
         int err_count = 0;
-
-
+        loadWatermarks(db, location);
 
         /* Insert weather data */
-        db.beginTransaction();
-        Boolean weatherSuccess = insertWeatherData(weatherArray.toString(), db);
+        beginWrite(db);
+        Boolean weatherSuccess = insertWeatherData(weatherArray, db);
         if(!weatherSuccess){
             err_count ++;
             System.err.println("Error storing weather");
@@ -222,8 +624,8 @@ public class WeatherDatabase extends SQLiteOpenHelper{
 
 
         /* Insert surf data - using transactions to help performance */
-        db.beginTransaction();
-        Boolean surfSuccess = insertSurfData(surfArray.toString(), db);
+        beginWrite(db);
+        Boolean surfSuccess = insertSurfData(surfArray, db);
         if(!surfSuccess){
             err_count ++;
             System.err.println("Error storing surf");
@@ -235,21 +637,256 @@ public class WeatherDatabase extends SQLiteOpenHelper{
         }
 
         if(err_count > 0){
-            db.endTransaction();
             return false;
         }
 
         return true;
     }
+
+    /*
+    * Store the responses for several locations (see SyncClient.fetchAll()) in one transaction, so there is a single
+    * writer and one commit for the whole sync. If any response can't be stored, nothing from this sync is kept (and the
+    * sync state is left as it was, so the next sync fetches it all again). Locations whose request failed (a null
+    * response) are skipped. Returns the number of new rows stored, or -1 if any location failed.
+     */
+    public int storeAll(int[] locations, SyncClient.Response[] responses) throws IOException {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        int stored = 0;
+        boolean failed = false;
+        beginWrite(db);
+        try{
+            for(int i = 0; i < locations.length; i++){
+                SyncClient.Response response = responses[i];
+                if(response == null){
+                    failed = true;
+                    continue;
+                }
+                if(!response.notModified){
+                    // Each insert's own transaction nests within this one
+                    if(!insertAllData(response.body, locations[i])){
+                        return -1;
+                    }
+                    stored += rowsStored;
+                }
+                setSyncState(locations[i], response.etag, now);
+            }
+            db.setTransactionSuccessful();
+        }
+        finally{
+            db.endTransaction();
+        }
+        return failed ? -1 : stored;
+    }
+
+    /*
+    * Store the weather and surf data from the server's response as it is read from the stream.
+    *
+    * Values are bound into the compiled inserts as each token arrives, so only one row is ever held in memory,
+    * whatever the size of the response. Each array is stored in its own transaction, as in insertAllData(String).
+    * JsonReader is only available from Honeycomb, so older devices read the whole response and use the JSONObject path.
+    *
+    * Rows older than those already stored for the location are skipped (see loadWatermarks()); getRowsStored() gives
+    * the number of new rows.
+    *
+    * Returns false if the data couldn't be parsed or stored. Errors reading the stream (such as a body cut short) are
+    * thrown instead, so the caller can tell a failed download from a bad response.
+     */
+    public Boolean insertAllData(InputStream in, int location) throws IOException {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB){
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                data.write(chunk, 0, n);
+            }
+            return insertAllData(data.toString("UTF-8"), location);
+        }
+        return streamAllData(in, location);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Boolean streamAllData(InputStream in, int location) throws IOException {
+        SQLiteDatabase db = this.getWritableDatabase();
+        compileStatements(db);
+        loadWatermarks(db, location);
+        int err_count = 0;
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try{
+            reader.beginObject();
+            while(reader.hasNext()){
+                String name = reader.nextName();
+                if(!name.equals("weather") && !name.equals("surf")){
+                    reader.skipValue();
+                    continue;
+                }
+                beginWrite(db);
+                try{
+                    if(name.equals("weather")){
+                        streamWeatherData(reader);
+                    }
+                    else{
+                        streamSurfData(reader);
+                    }
+                    db.setTransactionSuccessful();
+                }
+                catch(MalformedJsonException e){
+                    System.err.println("Error storing "+name+": "+e);
+                    err_count ++;
+                    break;
+                }
+                catch(IOException e){
+                    throw e;
+                }
+                catch(Exception e){
+                    // The reader can't be resumed part way through a row, so give up on the rest of the response
+                    System.err.println("Error storing "+name+": "+e);
+                    err_count ++;
+                    break;
+                }
+                finally{
+                    db.endTransaction();
+                }
+            }
+        }
+        catch(MalformedJsonException e){
+            System.err.println("couldn't parse JSON: "+e);
+            return false;
+        }
+        catch(IllegalStateException e){
+            // (a value of the wrong type)
+            System.err.println("couldn't parse JSON: "+e);
+            return false;
+        }
+        finally{
+            reader.close();
+        }
+        return err_count == 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void streamWeatherData(JsonReader reader) throws IOException {
+        SQLiteStatement insert = weatherInsert;
+        long[] values = new long[WEATHER_FIELDS.length];
+        String[] strings = new String[WEATHER_FIELDS.length];
+        int iconUrl = WEATHER_INDEX.get("icon_url");
+        reader.beginArray();
+        while(reader.hasNext()){
+            // Each element wraps the row in a "weather" object
+            reader.beginObject();
+            while(reader.hasNext()){
+                if(!reader.nextName().equals("weather")){
+                    reader.skipValue();
+                    continue;
+                }
+                insert.clearBindings();
+                bindRow(reader, insert, WEATHER_FIELDS, WEATHER_TYPES, WEATHER_INDEX, values, strings);
+                if(values[0] <= weatherWatermark){
+                    continue;
+                }
+                insert.bindLong(WEATHER_FIELDS.length + 1, Utilities.toEpochDay((int)values[1], (int)values[2], (int)values[3]));
+                String icon = Weather.getIconName(strings[iconUrl]);
+                if(icon != null){
+                    insert.bindString(WEATHER_FIELDS.length + 2, icon);
+                }
+                insert.executeInsert();
+                rowsStored ++;
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    /*
+    * As insertSurfData(), any existing rows for the location and request timestamp are deleted the first time the
+    * timestamp is seen (and so before any new rows for it are inserted).
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void streamSurfData(JsonReader reader) throws IOException {
+        SQLiteStatement insert = surfInsert;
+        HashSet<Long> seen = new HashSet<Long>();
+        long[] values = new long[SURF_FIELDS.length];
+        reader.beginArray();
+        while(reader.hasNext()){
+            insert.clearBindings();
+            bindRow(reader, insert, SURF_FIELDS, SURF_TYPES, SURF_INDEX, values, null);
+            long timestamp = values[1];
+            if(timestamp < surfWatermark){
+                continue;
+            }
+            insert.bindLong(SURF_FIELDS.length + 1, Utilities.toEpochDay((int)values[3], (int)values[4], (int)values[5]));
+            if(seen.add(timestamp)){
+                surfDelete.bindLong(1, values[0]);
+                surfDelete.bindLong(2, timestamp);
+                surfDelete.execute();
+            }
+            insert.executeInsert();
+            rowsStored ++;
+        }
+        reader.endArray();
+    }
+
+    /*
+    * Read one JSON object, binding each known field to its parameter of the statement as it is read. Every field must
+    * be present. Integer values are also copied into 'values' (by field position) for the caller, as are strings into
+    * 'strings' if it isn't null.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void bindRow(JsonReader reader, SQLiteStatement statement, String[] fields, char[] types,
+                                HashMap<String, Integer> index, long[] values, String[] strings) throws IOException {
+        int bound = 0;
+        reader.beginObject();
+        while(reader.hasNext()){
+            Integer field = index.get(reader.nextName());
+            if(field == null){
+                reader.skipValue();
+                continue;
+            }
+            int i = field;
+            if(reader.peek() == JsonToken.NULL){
+                reader.nextNull();
+                statement.bindNull(i + 1);
+                values[i] = 0;
+                if(strings != null){
+                    strings[i] = null;
+                }
+            }
+            else if(types[i] == 'L'){
+                values[i] = reader.nextLong();
+                statement.bindLong(i + 1, values[i]);
+            }
+            else if(types[i] == 'D'){
+                statement.bindDouble(i + 1, reader.nextDouble());
+            }
+            else{
+                String value = reader.nextString();
+                statement.bindString(i + 1, value);
+                if(strings != null){
+                    strings[i] = value;
+                }
+            }
+            bound ++;
+        }
+        reader.endObject();
+        if(bound < fields.length){
+            throw new IOException("Incomplete row ("+bound+" of "+fields.length+" fields)");
+        }
+    }
+
+    private static HashMap<String, Integer> indexFields(String[] fields){
+        HashMap<String, Integer> index = new HashMap<String, Integer>();
+        for(int i = 0; i < fields.length; i++){
+            index.put(fields[i], i);
+        }
+        return index;
+    }
 	
 	public Cursor getWeatherInfo(Calendar dayToGet){	
 		SQLiteDatabase db = this.getReadableDatabase();
-		int year = dayToGet.get(Calendar.YEAR);
-		int month = dayToGet.get(Calendar.MONTH)+1;
-		int day = dayToGet.get(Calendar.DAY_OF_MONTH);
+		String epochDay = Integer.toString(Utilities.toEpochDay(dayToGet));
 		
 		try{
-			Cursor result = db.rawQuery("SELECT * FROM weather WHERE year = "+year+" AND MONTH = "+month+" AND DAY = "+day+" ORDER BY timestamp",null);
+			Cursor result = db.rawQuery(SELECT_WEATHER_DAY, new String[]{epochDay});
 			result.moveToLast();
 			return result;
 		}
@@ -261,11 +898,9 @@ public class WeatherDatabase extends SQLiteOpenHelper{
 
     public Cursor getSurfInfo(Calendar dayToGet, int location){
         SQLiteDatabase db = this.getReadableDatabase();
-        int year = dayToGet.get(Calendar.YEAR);
-        int month = dayToGet.get(Calendar.MONTH)+1;
-        int day = dayToGet.get(Calendar.DAY_OF_MONTH);
+        String epochDay = Integer.toString(Utilities.toEpochDay(dayToGet));
         try{
-            Cursor result = db.rawQuery("SELECT * FROM surf WHERE year = "+year+" AND month = "+month+" AND day = "+day+" AND location = "+location+" ORDER BY timestamp DESC",null);
+            Cursor result = db.rawQuery(SELECT_SURF_DAY, new String[]{Integer.toString(location), epochDay});
 
             result.moveToFirst();
             return result;
@@ -276,4 +911,36 @@ public class WeatherDatabase extends SQLiteOpenHelper{
         }
     }
 
+    /*
+    * Range versions of the above, returning the rows for every day between the two Calendar days (inclusive).
+    *
+    * Weather is ordered by day then timestamp (so the most recent forecast is the last row of each day) and surf is
+    * ordered by day then timestamp DESC (so the most recent forecast is the first row of each day).
+     */
+    public Cursor getWeatherInfo(Calendar from, Calendar to){
+        SQLiteDatabase db = this.getReadableDatabase();
+        try{
+            Cursor result = db.rawQuery(SELECT_WEATHER_DAYS, new String[]{Integer.toString(Utilities.toEpochDay(from)), Integer.toString(Utilities.toEpochDay(to))});
+            result.moveToFirst();
+            return result;
+        }
+        catch(Exception e){
+            System.out.println(e);
+            return null;
+        }
+    }
+
+    public Cursor getSurfInfo(Calendar from, Calendar to, int location){
+        SQLiteDatabase db = this.getReadableDatabase();
+        try{
+            Cursor result = db.rawQuery(SELECT_SURF_DAYS, new String[]{Integer.toString(location), Integer.toString(Utilities.toEpochDay(from)), Integer.toString(Utilities.toEpochDay(to))});
+            result.moveToFirst();
+            return result;
+        }
+        catch(Exception e){
+            System.out.println(e);
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,189 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/*
+* Heap retained by the Days the app keeps (DayCache holds a window of them, each with its neighbours' tides), compared
+* with the Calendar-based model they replaced. The old classes are reproduced below with the fields they had, and both
+* models are measured the same way: the growth in used heap while N Days of each are held.
+*
+* Measured on the JVM rather than a device, so the figures are only approximate, but the old model was more than an
+* order of magnitude bigger, so the comparison has plenty of room.
+ */
+public class DayFootprintTest {
+
+    private static final int DAYS = 20000;
+    private static final int SAMPLES = 5;
+
+    // The new model must be at least this many times smaller (it measures about 20 times smaller)
+    private static final int MIN_RATIO = 4;
+
+    /*
+    * The Tide class replaced by Tides (one object per tide, with its own Calendar, boxed height and type String).
+     */
+    private static class OldTide {
+        public final int LOW = 0;
+        public final int HIGH = 1;
+
+        public Double height;
+        public Calendar time;
+        public double timeHours;
+        public String type;
+    }
+
+    /*
+    * The Day fields replaced by primitives (Calendars for the date and sun times, boxed flags, links to the
+    * neighbouring Days rather than their tides).
+     */
+    private static class OldDay {
+        private Calendar day;
+        private Calendar sunrise;
+        private Calendar sunset;
+        private String moon;
+        private Weather weather;
+        private ArrayList<Surf> surf_reports = new ArrayList<Surf>();
+        private ArrayList<OldTide> tide_forecasts = new ArrayList<OldTide>();
+        private OldDay yesterday, tomorrow;
+        private Object context;
+        private Boolean weatherAvailable;
+        private Boolean surfAvailable;
+        private Boolean tidesAvailable;
+    }
+
+    private interface Model {
+        public Object day(int epochDay);
+        public void link(Object[] days);
+    }
+
+    /*
+    * Days as Utilities builds them from a tide row: four tides, sun times and their own moon String.
+     */
+    private static final Model NEW_MODEL = new Model() {
+        public Object day(int epochDay){
+            int midnight = epochDay*1440;
+            Tides tides = new Tides(new int[]{midnight + 100, midnight + 475, midnight + 850, midnight + 1225},
+                    new short[]{820, 150, 835, 140}, new byte[]{Tides.HIGH, Tides.LOW, Tides.HIGH, Tides.LOW});
+            return new Day(epochDay, midnight + 300, midnight + 1260, new String(new char[]{'W', 'a', 'x', 'i', 'n', 'g'}),
+                    tides, null, null);
+        }
+
+        public void link(Object[] days){
+            for(int i = 1; i < days.length - 1; i++){
+                days[i] = ((Day)days[i]).withNeighbours(((Day)days[i - 1]).getTides(), ((Day)days[i + 1]).getTides());
+            }
+        }
+    };
+
+    private static final Model OLD_MODEL = new Model() {
+        private final int[] minutes = {100, 475, 850, 1225};
+        private final double[] heights = {8.2, 1.5, 8.35, 1.4};
+
+        private Calendar time(int epochDay, int minute){
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis((epochDay*1440L + minute)*60000L);
+            return cal;
+        }
+
+        public Object day(int epochDay){
+            OldDay day = new OldDay();
+            day.day = time(epochDay, 0);
+            day.sunrise = time(epochDay, 300);
+            day.sunset = time(epochDay, 1260);
+            day.moon = new String(new char[]{'W', 'a', 'x', 'i', 'n', 'g'});
+            for(int i = 0; i < minutes.length; i++){
+                OldTide tide = new OldTide();
+                tide.time = time(epochDay, minutes[i]);
+                tide.timeHours = minutes[i] / 60.0;
+                tide.height = heights[i];
+                tide.type = i % 2 == 0 ? "high" : "low";
+                day.tide_forecasts.add(tide);
+            }
+            day.tidesAvailable = true;
+            day.weatherAvailable = false;
+            day.surfAvailable = false;
+            return day;
+        }
+
+        public void link(Object[] days){
+            for(int i = 1; i < days.length - 1; i++){
+                ((OldDay)days[i]).yesterday = (OldDay)days[i - 1];
+                ((OldDay)days[i]).tomorrow = (OldDay)days[i + 1];
+            }
+        }
+    };
+
+    /*
+    * Used heap after a collection: the median of several samples, so one collection that doesn't finish (System.gc()
+    * is only a request) can't skew it.
+     */
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        long[] samples = new long[SAMPLES];
+        for(int i = 0; i < SAMPLES; i++){
+            System.gc();
+            try{
+                Thread.sleep(20);
+            }
+            catch(InterruptedException e){
+                break;
+            }
+            samples[i] = runtime.totalMemory() - runtime.freeMemory();
+        }
+        Arrays.sort(samples);
+        return samples[SAMPLES / 2];
+    }
+
+    /*
+    * Heap retained per Day while DAYS Days of the model are held. The array holding them is allocated before the
+    * first sample, so only the Days themselves are counted.
+     */
+    private static long bytesPerDay(Model model){
+        Object[] days = new Object[DAYS];
+        long before = usedHeap();
+        for(int i = 0; i < DAYS; i++){
+            days[i] = model.day(17000 + i);
+        }
+        model.link(days);
+        long after = usedHeap();
+        // (keep the Days reachable until the second sample has been taken)
+        assertNotNull(days[DAYS - 1]);
+        return (after - before) / DAYS;
+    }
+
+    @Test
+    public void dayFootprint(){
+        // Load and warm up both models first, so neither measurement includes class loading
+        bytesPerDay(OLD_MODEL);
+        bytesPerDay(NEW_MODEL);
+
+        long oldBytes = bytesPerDay(OLD_MODEL);
+        long newBytes = bytesPerDay(NEW_MODEL);
+        System.out.println("Retained heap per Day: "+oldBytes+" bytes before, "+newBytes+" bytes now ("+
+                (newBytes > 0 ? oldBytes / newBytes : 0)+" times smaller)");
+        assertTrue("The new model retains "+newBytes+" bytes per Day against "+oldBytes+" before",
+                newBytes * MIN_RATIO < oldBytes);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.TimeZone;
+
+import net.willwebberley.gowertides.classes.Tides;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/*
+* Clock's formatting, and that the per-minute work (updating the clock and formatting the times shown) allocates
+* nothing once it is running.
+ */
+public class ClockTest {
+
+    // 2016-07-01 12:00 UTC (13:00 BST) and 2016-01-01 12:00 UTC (12:00 GMT)
+    private static final long SUMMER_NOON = 1467374400000L;
+    private static final long WINTER_NOON = 1451649600000L;
+    // 2016-03-13 05:00 UTC, half an hour before Newfoundland's clocks went forward (at 05:30 UTC, 02:00 NST)
+    private static final long NEWFOUNDLAND_DST = 1457845200000L;
+
+    private TimeZone defaultZone;
+
+    @Before
+    public void setUp(){
+        defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+    }
+
+    @After
+    public void tearDown(){
+        TimeZone.setDefault(defaultZone);
+    }
+
+    private static String format(char[] buffer, int length){
+        return new String(buffer, 0, length);
+    }
+
+    @Test
+    public void setReadsLocalDayAndMinute(){
+        Clock clock = new Clock().set(SUMMER_NOON);
+        assertEquals((int)(SUMMER_NOON / 60000), clock.getEpochMinute());
+        assertEquals((int)(SUMMER_NOON / 86400000L), clock.getEpochDay());
+        assertEquals(13*60, clock.getMinuteOfDay());
+
+        // 23:30 UTC on 30 June is already 1 July in BST
+        clock.set(SUMMER_NOON - (12*60 + 30)*60000L);
+        assertEquals((int)(SUMMER_NOON / 86400000L), clock.getEpochDay());
+        assertEquals(30, clock.getMinuteOfDay());
+
+        clock.set(WINTER_NOON);
+        assertEquals(12*60, clock.getMinuteOfDay());
+    }
+
+    @Test
+    public void offsetChangesAtHalfHourTransition(){
+        TimeZone.setDefault(TimeZone.getTimeZone("America/St_Johns"));
+        Clock clock = new Clock().set(NEWFOUNDLAND_DST);
+        assertEquals(90, clock.getMinuteOfDay()); // 01:30 NST (-3:30)
+
+        clock.set(NEWFOUNDLAND_DST + 29*60000L);
+        assertEquals(119, clock.getMinuteOfDay());
+        clock.set(NEWFOUNDLAND_DST + 30*60000L);
+        assertEquals(3*60, clock.getMinuteOfDay()); // 03:00 NDT (-2:30)
+    }
+
+    @Test
+    public void resetZoneReadsNewTimeZone(){
+        Clock clock = new Clock().set(WINTER_NOON);
+        assertEquals(12*60, clock.getMinuteOfDay());
+
+        // The offset is kept until the next transition, unless the zone is reset
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+        clock.set(WINTER_NOON + 60000);
+        assertEquals(12*60 + 1, clock.getMinuteOfDay());
+        clock.resetZone();
+        clock.set(WINTER_NOON + 60000);
+        assertEquals(21*60 + 1, clock.getMinuteOfDay());
+    }
+
+    @Test
+    public void formatTimeWritesUkTime(){
+        char[] buffer = new char[5];
+        Clock.formatTime((int)(SUMMER_NOON / 60000) + 5, buffer, 0);
+        assertEquals("13:05", format(buffer, 5));
+        Clock.formatTime((int)(WINTER_NOON / 60000) - 12*60 + 7, buffer, 0);
+        assertEquals("00:07", format(buffer, 5));
+    }
+
+    @Test
+    public void formatDurationWritesHoursAndMinutes(){
+        char[] buffer = new char[8];
+        assertEquals("0:05", format(buffer, Clock.formatDuration(5, false, buffer, 0)));
+        assertEquals("+1:30", format(buffer, Clock.formatDuration(90, true, buffer, 0)));
+        assertEquals("-12:00", format(buffer, Clock.formatDuration(-720, true, buffer, 0)));
+        int length = Clock.formatDuration(187, false, buffer, 2);
+        assertEquals("3:07", new String(buffer, 2, length));
+    }
+
+    @Test
+    public void minuteTickDoesNotAllocate(){
+        ThreadAllocations allocations = ThreadAllocations.get();
+        Assume.assumeTrue("Allocation counting isn't supported by this JVM", allocations != null);
+
+        Clock clock = new Clock();
+        Tides tides = new Tides(new int[]{(int)(SUMMER_NOON / 60000) - 200, (int)(SUMMER_NOON / 60000) + 180},
+                new short[]{120, 850}, new byte[]{Tides.LOW, Tides.HIGH});
+        char[] time = new char[5], duration = new char[8], difference = new char[8];
+
+        // The minutes of one hour (the time zone offset, which may allocate, is only looked up again at a transition,
+        // and there is none in this hour). Run them for a while first, as loading and compiling the code allocates.
+        long hour = SUMMER_NOON;
+        tick(clock, tides, hour, time, duration, difference);
+        for(int i = 0; i < 100000; i++){
+            tick(clock, tides, hour + (i % 60)*60000L, time, duration, difference);
+        }
+
+        long before = allocations.bytes();
+        int written = 0;
+        for(int i = 0; i < 100000; i++){
+            written += tick(clock, tides, hour + (i % 60)*60000L, time, duration, difference);
+        }
+        long allocated = allocations.bytes() - before;
+
+        assertTrue(written > 0);
+        assertEquals("Bytes allocated by 100000 minute ticks", 0, allocated);
+    }
+
+    /*
+    * The work done each minute: update the clock, then format the sunset countdown and a tide's time difference.
+     */
+    private static int tick(Clock clock, Tides tides, long millis, char[] time, char[] duration, char[] difference){
+        clock.set(millis);
+        Clock.formatTime(clock.getEpochMinute(), time, 0);
+        int written = Clock.formatDuration(clock.getMinuteOfDay() - 20*60, true, duration, 0);
+        for(int i = 0; i < tides.size(); i++){
+            written += tides.formatTimeDifference(i, clock.getEpochMinute(), difference, 0);
+        }
+        return written;
+    }
+
+    /*
+    * Bytes allocated by the current thread, from HotSpot's ThreadMXBean.
+     */
+    private static class ThreadAllocations {
+        private final com.sun.management.ThreadMXBean bean;
+
+        private ThreadAllocations(com.sun.management.ThreadMXBean bean){
+            this.bean = bean;
+        }
+
+        static ThreadAllocations get(){
+            try{
+                java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                if(!(bean instanceof com.sun.management.ThreadMXBean)
+                        || !((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()){
+                    return null;
+                }
+                ((com.sun.management.ThreadMXBean)bean).setThreadAllocatedMemoryEnabled(true);
+                ThreadAllocations allocations = new ThreadAllocations((com.sun.management.ThreadMXBean)bean);
+                allocations.bytes();
+                return allocations;
+            }
+            catch(LinkageError e){
+                return null;
+            }
+        }
+
+        long bytes(){
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
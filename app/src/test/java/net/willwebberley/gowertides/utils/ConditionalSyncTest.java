@@ -0,0 +1,121 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/*
+* Conditional requests (see SyncClient): the ETag and watermark stored by one sync are sent with the next, and an
+* unchanged forecast stores nothing. The forecast timestamp a sync records also decides whether its data is still fresh.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ConditionalSyncTest {
+
+    private static final int LOCATION = 1;
+
+    private FakeServer server;
+    private WeatherDatabase db;
+    private SyncClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeServer();
+        db = new WeatherDatabase(RuntimeEnvironment.application);
+        client = new SyncClient(server.getURL(), "test", "1");
+    }
+
+    @After
+    public void tearDown(){
+        server.stop();
+        db.close();
+    }
+
+    private int sync(){
+        int[] locations = {LOCATION};
+        SyncClient.Response[] responses = client.fetchAll(locations, new String[]{db.getSyncEtag(LOCATION)},
+                new long[]{db.getWatermark(LOCATION)});
+        try{
+            return db.storeAll(locations, responses);
+        }
+        catch(Exception e){
+            throw new AssertionError(e);
+        }
+        finally{
+            for(SyncClient.Response response : responses){
+                if(response != null){
+                    response.close();
+                }
+            }
+        }
+    }
+
+    private int countRows(){
+        Cursor c = db.getReadableDatabase().rawQuery("SELECT (SELECT COUNT(*) FROM weather) + (SELECT COUNT(*) FROM surf)", null);
+        c.moveToFirst();
+        int count = c.getInt(0);
+        c.close();
+        return count;
+    }
+
+    @Test
+    public void notModifiedStoresNothing() throws Exception {
+        server.enqueue(200, FakeServer.forecast(LOCATION, 1000, 8), "\"v1\"", 0);
+        server.enqueue(304, null, null, 0);
+
+        // First sync: nothing to send, everything stored
+        assertEquals(9, sync());
+        assertNull(server.getIfNoneMatch(0));
+        assertFalse(server.getQuery(0).contains("since="));
+        assertEquals("\"v1\"", db.getSyncEtag(LOCATION));
+        long watermark = db.getWatermark(LOCATION);
+        assertEquals(1000, watermark);
+        int rows = countRows();
+        assertEquals(9, rows);
+
+        // Second sync: the ETag and watermark are sent, and the 304 leaves the data as it was
+        assertEquals(0, sync());
+        assertEquals(2, server.getRequestCount());
+        assertEquals("\"v1\"", server.getIfNoneMatch(1));
+        assertTrue(server.getQuery(1).contains("&since="+watermark));
+        assertEquals(rows, countRows());
+        assertEquals("\"v1\"", db.getSyncEtag(LOCATION));
+    }
+
+    @Test
+    public void staleOnceForecastIsGone() throws Exception {
+        server.enqueue(200, FakeServer.forecast(LOCATION, 1000, 8), "\"v1\"", 0);
+        sync();
+        assertEquals(1000, db.getForecastTimestamp(LOCATION));
+        assertFalse(SyncScheduler.isStale(RuntimeEnvironment.application, db, LOCATION));
+
+        // Just synced, but the forecast that sync stored has since been removed
+        db.getWritableDatabase().execSQL("DELETE FROM surf");
+        assertTrue(SyncScheduler.isStale(RuntimeEnvironment.application, db, LOCATION));
+    }
+}
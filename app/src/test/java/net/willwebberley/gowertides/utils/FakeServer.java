@@ -0,0 +1,214 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+* Local stand-in for the data server. Replies are queued (or a default is used) and can be given a delay, and the
+* requests made are recorded. Bodies are sent gzipped, as the real server does.
+ */
+public class FakeServer {
+
+    private static class Reply {
+        int status;
+        String body;
+        String etag;
+        long delay;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // Guarded by 'this'
+    private final LinkedList<Reply> replies = new LinkedList<Reply>();
+    private Reply defaultReply;
+    private final ArrayList<String> queries = new ArrayList<String>();
+    private final ArrayList<String> etags = new ArrayList<String>();
+
+    // If set, replies wait for it to be counted down
+    public volatile CountDownLatch gate;
+
+    public FakeServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                reply(exchange);
+            }
+        });
+        server.start();
+    }
+
+    public String getURL(){
+        return "http://127.0.0.1:"+server.getAddress().getPort()+"/";
+    }
+
+    public void stop(){
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /*
+    * Queue a reply. body and etag may be null; delay is in ms.
+     */
+    public synchronized void enqueue(int status, String body, String etag, long delay){
+        replies.add(reply(status, body, etag, delay));
+    }
+
+    /*
+    * Reply used once the queue is empty.
+     */
+    public synchronized void setDefault(int status, String body, String etag, long delay){
+        defaultReply = reply(status, body, etag, delay);
+    }
+
+    public synchronized int getRequestCount(){
+        return queries.size();
+    }
+
+    /*
+    * Query string of request i.
+     */
+    public synchronized String getQuery(int i){
+        return queries.get(i);
+    }
+
+    /*
+    * If-None-Match header of request i (or null).
+     */
+    public synchronized String getIfNoneMatch(int i){
+        return etags.get(i);
+    }
+
+    /*
+    * Wait until at least 'count' requests have been made (or the timeout, in ms, passes).
+     */
+    public boolean awaitRequests(int count, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while(getRequestCount() < count){
+            if(System.currentTimeMillis() > end){
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static Reply reply(int status, String body, String etag, long delay){
+        Reply reply = new Reply();
+        reply.status = status;
+        reply.body = body;
+        reply.etag = etag;
+        reply.delay = delay;
+        return reply;
+    }
+
+    private void reply(HttpExchange exchange) throws IOException {
+        Reply reply;
+        synchronized(this){
+            queries.add(exchange.getRequestURI().getQuery());
+            etags.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            reply = replies.isEmpty() ? defaultReply : replies.removeFirst();
+        }
+        try{
+            if(reply.delay > 0){
+                Thread.sleep(reply.delay);
+            }
+            CountDownLatch wait = gate;
+            if(wait != null){
+                wait.await();
+            }
+            if(reply.etag != null){
+                exchange.getResponseHeaders().set("ETag", reply.etag);
+            }
+            if(reply.body == null){
+                exchange.sendResponseHeaders(reply.status, -1);
+            }
+            else{
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(data);
+                gzip.write(reply.body.getBytes("UTF-8"));
+                gzip.close();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(reply.status, data.size());
+                exchange.getResponseBody().write(data.toByteArray());
+            }
+        }
+        catch(InterruptedException e){
+            // Server stopped
+        }
+        catch(IOException e){
+            // Client gave up (timed out or cancelled)
+        }
+        finally{
+            exchange.close();
+        }
+    }
+
+    /*
+    * A response body with one weather row and 'hours' surf rows for the location, for today (so retention keeps it).
+     */
+    public static String forecast(int location, long timestamp, int hours){
+        Calendar today = Calendar.getInstance();
+        int year = today.get(Calendar.YEAR), month = today.get(Calendar.MONTH) + 1, day = today.get(Calendar.DAY_OF_MONTH);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"weather\":[{\"weather\":{\"timestamp\":").append(timestamp)
+                .append(",\"year\":").append(year).append(",\"month\":").append(month).append(",\"day\":").append(day)
+                .append(",\"max_temp_c\":15,\"max_temp_f\":59,\"min_temp_c\":9,\"min_temp_f\":48")
+                .append(",\"wind_speed_miles\":10,\"wind_speed_km\":16,\"wind_direction\":\"SW\",\"wind_degree\":225")
+                .append(",\"icon_url\":\"http://example.com/images/wsymbol_0002_sunny_intervals.png\"")
+                .append(",\"weather_description\":\"Partly Cloudy\",\"precipitation\":0.2}}],\"surf\":[");
+        for(int hour = 0; hour < hours; hour++){
+            if(hour > 0){
+                json.append(',');
+            }
+            json.append("{\"location\":").append(location).append(",\"timestamp\":").append(timestamp)
+                    .append(",\"local_time\":").append(timestamp + hour*3600)
+                    .append(",\"year\":").append(year).append(",\"month\":").append(month).append(",\"day\":").append(day)
+                    .append(",\"hour\":").append(hour % 24).append(",\"minute\":0,\"faded_rating\":1,\"solid_rating\":2")
+                    .append(",\"min_surf_height\":2.0,\"abs_min_surf_height\":1.5,\"max_surf_height\":3.0")
+                    .append(",\"abs_max_surf_height\":3.5,\"swell_height\":4.0,\"swell_period\":11.0,\"swell_angle\":250.0")
+                    .append(",\"swell_direction\":\"WSW\",\"swell_chart\":\"s\",\"period_chart\":\"p\",\"wind_chart\":\"w\"")
+                    .append(",\"pressure_chart\":\"r\",\"sst_chart\":\"t\"}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/*
+* SyncClient against a local FakeServer that adds latency and failures.
+ */
+public class SyncClientTest {
+
+    private FakeServer server;
+    private SyncClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeServer();
+        client = new SyncClient(server.getURL(), "test", "1");
+        client.setRetry(3, 10);
+    }
+
+    @After
+    public void tearDown(){
+        client.cancel();
+        server.stop();
+    }
+
+    private static void closeAll(SyncClient.Response[] responses){
+        for(SyncClient.Response response : responses){
+            if(response != null){
+                response.close();
+            }
+        }
+    }
+
+    @Test
+    public void readTimeout() throws Exception {
+        server.setDefault(200, FakeServer.forecast(1, 1000, 1), "\"a\"", 2000);
+        client.setTimeouts(1000, 200);
+        client.setRetry(1, 10);
+        long start = System.currentTimeMillis();
+        SyncClient.Response[] responses = client.fetchAll(new int[]{1}, new String[1], new long[1]);
+        assertNull(responses[0]);
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, client.getOpenConnections());
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws Exception {
+        server.enqueue(503, null, null, 0);
+        server.enqueue(500, null, null, 0);
+        server.setDefault(200, FakeServer.forecast(1, 1000, 1), "\"a\"", 0);
+        SyncClient.Response[] responses = client.fetchAll(new int[]{1}, new String[1], new long[1]);
+        try{
+            assertNotNull(responses[0]);
+            assertFalse(responses[0].notModified);
+            assertEquals("\"a\"", responses[0].etag);
+            assertEquals(3, server.getRequestCount());
+        }
+        finally{
+            closeAll(responses);
+        }
+    }
+
+    @Test
+    public void serverErrorsGiveUpAfterMaxAttempts() throws Exception {
+        server.setDefault(503, null, null, 0);
+        SyncClient.Response[] responses = client.fetchAll(new int[]{1}, new String[1], new long[1]);
+        assertNull(responses[0]);
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        server.setDefault(404, null, null, 0);
+        SyncClient.Response[] responses = client.fetchAll(new int[]{1}, new String[1], new long[1]);
+        assertNull(responses[0]);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelStopsFetchInFlight() throws Exception {
+        server.setDefault(200, FakeServer.forecast(1, 1000, 1), "\"a\"", 10000);
+        final SyncClient.Response[][] result = new SyncClient.Response[1][];
+        Thread fetch = new Thread(new Runnable() {
+            public void run() {
+                result[0] = client.fetchAll(new int[]{1, 2}, new String[2], new long[2]);
+            }
+        });
+        fetch.start();
+        assertTrue(server.awaitRequests(2, 5000));
+
+        long start = System.currentTimeMillis();
+        client.cancel();
+        fetch.join(5000);
+        assertFalse("fetchAll() still running after cancel()", fetch.isAlive());
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertNull(result[0][0]);
+        assertNull(result[0][1]);
+        // Cancelled fetches aren't retried
+        assertEquals(2, server.getRequestCount());
+        assertTrue(client.isCancelled());
+    }
+
+    @Test
+    public void interruptClosesResponses() throws Exception {
+        // Location 1 answers at once, location 2 only after the fetch has been abandoned
+        server.enqueue(200, FakeServer.forecast(1, 1000, 1), "\"a\"", 0);
+        server.setDefault(200, FakeServer.forecast(2, 1000, 1), "\"b\"", 1000);
+        // Each response takes a buffer from the pool (a new one if it is empty) and should give it back. The second only
+        // takes one after the first has been closed, so the pool should end up as it was, or with one buffer if empty.
+        int pooled = Math.max(SyncClient.getPooledBuffers(), 1);
+        final SyncClient.Response[][] result = new SyncClient.Response[1][];
+        Thread fetch = new Thread(new Runnable() {
+            public void run() {
+                result[0] = client.fetchAll(new int[]{1, 2}, new String[2], new long[2]);
+            }
+        });
+        fetch.start();
+        assertTrue(server.awaitRequests(2, 5000));
+        Thread.sleep(100);
+
+        fetch.interrupt();
+        fetch.join(5000);
+        assertFalse("fetchAll() still running after interrupt", fetch.isAlive());
+        assertNull(result[0][0]);
+        assertNull(result[0][1]);
+
+        // The slow request finishes later (releasing its connection once its body is read), and its response is closed
+        // too
+        long deadline = System.currentTimeMillis() + 5000;
+        while(client.getOpenConnections() > 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(20);
+        }
+        assertEquals(0, client.getOpenConnections());
+        Thread.sleep(200);
+        assertEquals(pooled, SyncClient.getPooledBuffers());
+    }
+
+    @Test
+    public void bodyIsDecompressedFromBuffer() throws Exception {
+        String body = FakeServer.forecast(1, 1000, 200);
+        server.setDefault(200, body, "\"a\"", 0);
+        SyncClient.Response[] responses = client.fetchAll(new int[]{1}, new String[1], new long[1]);
+        try{
+            // Only the compressed body is held until it is read
+            assertEquals(0, responses[0].getBytes());
+            assertTrue(responses[0].getCompressedBytes() > 0);
+            assertTrue(responses[0].getCompressedBytes() < body.length());
+
+            byte[] chunk = new byte[4096];
+            long read = 0;
+            int n;
+            while((n = responses[0].body.read(chunk)) != -1){
+                read += n;
+            }
+            assertEquals(body.getBytes("UTF-8").length, read);
+            assertEquals(read, responses[0].getBytes());
+        }
+        finally{
+            closeAll(responses);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.*;
+
+/*
+* SyncEngine against a local FakeServer.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SyncEngineTest {
+
+    private FakeServer server;
+    private WeatherDatabase db;
+    private SyncEngine engine;
+
+    /*
+    * Records the result it is given.
+     */
+    private static class Result implements SyncEngine.Listener {
+        int calls = 0;
+        boolean success;
+
+        public void onSyncFinished(boolean success){
+            calls ++;
+            this.success = success;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeServer();
+        db = new WeatherDatabase(RuntimeEnvironment.application);
+        engine = new SyncEngine(RuntimeEnvironment.application, db, server.getURL());
+    }
+
+    @After
+    public void tearDown(){
+        server.stop();
+        db.close();
+    }
+
+    /*
+    * Run the main looper (where listeners are called) until the listener has been called, or the timeout passes.
+     */
+    private static void awaitResult(Result result, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while(result.calls == 0 && System.currentTimeMillis() < end){
+            ShadowLooper.runUiThreadTasks();
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void concurrentSyncsShareOneJob() throws Exception {
+        server.gate = new CountDownLatch(1);
+        server.setDefault(200, FakeServer.forecast(1, 1000, 4), "\"a\"", 0);
+        Result first = new Result(), second = new Result();
+        int[] locations = {1, 2};
+
+        assertTrue(engine.sync(locations, true, first));
+        assertTrue(server.awaitRequests(2, 5000));
+        // Asked for again while the first is still waiting on the server: no new job, no new requests
+        assertFalse(engine.sync(locations, true, second));
+        assertTrue(engine.isSyncing());
+
+        server.gate.countDown();
+        awaitResult(first, 10000);
+        awaitResult(second, 10000);
+        assertEquals(1, first.calls);
+        assertEquals(1, second.calls);
+        assertTrue(first.success);
+        assertTrue(second.success);
+        assertEquals(2, server.getRequestCount());
+        assertFalse(engine.isSyncing());
+        assertEquals(2, engine.getFetchCount());
+    }
+}
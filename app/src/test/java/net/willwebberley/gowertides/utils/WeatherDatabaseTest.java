@@ -0,0 +1,109 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/*
+* Storing a response, which tells a body that can't be read from one that can't be parsed, and the database's
+* auto_vacuum mode: set when it is created, or converted by the retention pass after a sync (never when the database is
+* opened, which may be on the UI thread).
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class WeatherDatabaseTest {
+
+    private static final int AUTO_VACUUM_NONE = 0;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private WeatherDatabase db;
+
+    @Before
+    public void setUp(){
+        db = new WeatherDatabase(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown(){
+        db.close();
+    }
+
+    private static int autoVacuum(SQLiteDatabase db){
+        Cursor c = db.rawQuery("PRAGMA auto_vacuum", null);
+        c.moveToFirst();
+        int mode = c.getInt(0);
+        c.close();
+        return mode;
+    }
+
+    private static InputStream stream(String data) throws IOException {
+        return new ByteArrayInputStream(data.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void storesStreamedResponse() throws Exception {
+        assertTrue(db.insertAllData(stream(FakeServer.forecast(1, 1000, 4)), 1));
+        assertEquals(5, db.getRowsStored());
+    }
+
+    @Test
+    public void badResponseIsNotStored() throws Exception {
+        assertFalse(db.insertAllData(stream("{\"weather\": [{\"weather\": {\"timestamp\": \"soon\"}}]}"), 1));
+        assertFalse(db.insertAllData(stream("not json"), 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedResponseThrows() throws Exception {
+        String body = FakeServer.forecast(1, 1000, 4);
+        db.insertAllData(stream(body.substring(0, body.length() / 2)), 1);
+    }
+
+    @Test
+    public void retentionConvertsToIncrementalVacuum(){
+        SQLiteDatabase sql = db.getWritableDatabase();
+        // As a database from before auto_vacuum was used
+        sql.execSQL("PRAGMA auto_vacuum = NONE");
+        sql.execSQL("VACUUM");
+        assertEquals(AUTO_VACUUM_NONE, autoVacuum(sql));
+
+        // Opening it again leaves it as it is
+        db.close();
+        sql = db.getWritableDatabase();
+        assertEquals(AUTO_VACUUM_NONE, autoVacuum(sql));
+
+        // Converted after a sync, with write-ahead logging turned back on
+        db.applyRetention(14);
+        assertEquals(AUTO_VACUUM_INCREMENTAL, autoVacuum(sql));
+        assertTrue(sql.isWriteAheadLoggingEnabled());
+    }
+}
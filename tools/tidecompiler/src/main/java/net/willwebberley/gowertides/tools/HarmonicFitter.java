@@ -0,0 +1,263 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import net.willwebberley.gowertides.utils.TidePredictor;
+
+/*
+* Fits harmonic constants for TidePredictor to the compiled tide table, checks the resulting predictions against the
+* table and writes the constants to the app's assets.
+*
+* The table only has high and low waters, so each event gives two equations: the height at that time, and a rate of
+* change of zero. These are solved by least squares for the mean level and the cosine and sine terms of each
+* constituent (with the nodal corrections applied, as TidePredictor does).
+*
+* Validation: each table event is matched with the nearest predicted event of the same type. The fit is rejected
+* (non-zero exit) if the RMS time error is over TIME_TOLERANCE minutes, the RMS height error is over HEIGHT_TOLERANCE
+* metres, or more than 1% of events have no predicted event within 3 hours.
+ */
+public class HarmonicFitter {
+
+    public static final double TIME_TOLERANCE = 15; // minutes, RMS
+    public static final double HEIGHT_TOLERANCE = 0.15; // metres, RMS
+    private static final int MATCH_WINDOW = 180; // minutes
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2){
+            System.err.println("Usage: HarmonicFitter <compiled db> <output constants>");
+            System.exit(1);
+        }
+        Class.forName("org.sqlite.JDBC");
+        Connection db = DriverManager.getConnection("jdbc:sqlite:"+args[0]);
+        ArrayList<long[]> events;
+        try{
+            events = readEvents(db);
+        }
+        finally{
+            db.close();
+        }
+        if(events.isEmpty()){
+            System.err.println("No tides in "+args[0]);
+            System.exit(1);
+        }
+
+        String[] names = TidePredictor.CONSTITUENTS;
+        double[] solution = fit(events, names);
+        double[] amplitudes = new double[names.length];
+        double[] phases = new double[names.length];
+        for(int k = 0; k < names.length; k++){
+            double a = solution[1 + 2*k], b = solution[2 + 2*k];
+            amplitudes[k] = Math.sqrt(a*a + b*b);
+            phases[k] = (Math.toDegrees(Math.atan2(b, a)) + 360) % 360;
+        }
+        TidePredictor predictor = new TidePredictor(solution[0], names, amplitudes, phases);
+
+        double[] errors = validate(predictor, events);
+        String summary = String.format(Locale.US, "%d events: time RMS %.1f min (max %.0f), height RMS %.3f m (max %.3f), %d unmatched",
+                events.size(), errors[0], errors[1], errors[2], errors[3], (int)errors[4]);
+        System.out.println(summary);
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(args[1])), "UTF-8"));
+        try{
+            out.println("# Mumbles (Swansea Bay) harmonic constants, fitted from the tide table by tools/tidecompiler");
+            out.println("# Checked against the table: "+summary);
+            out.println("# name amplitude(m) phase(degrees, relative to 2000-01-01 00:00 UTC)");
+            out.println(String.format(Locale.US, "Z0 %.4f", solution[0]));
+            for(int k = 0; k < names.length; k++){
+                out.println(String.format(Locale.US, "%s %.4f %.2f", names[k], amplitudes[k], phases[k]));
+            }
+        }
+        finally{
+            out.close();
+        }
+
+        if(errors[0] > TIME_TOLERANCE || errors[2] > HEIGHT_TOLERANCE || errors[4] > events.size() / 100){
+            System.err.println("Fit is outside tolerance ("+TIME_TOLERANCE+" min, "+HEIGHT_TOLERANCE+" m RMS)");
+            System.exit(1);
+        }
+    }
+
+    /*
+    * Read every tide from the compiled table as {epoch minute (UTC), height (cm), type}.
+     */
+    private static ArrayList<long[]> readEvents(Connection db) throws SQLException {
+        ArrayList<long[]> events = new ArrayList<long[]>();
+        Statement query = db.createStatement();
+        ResultSet rs = query.executeQuery("SELECT * FROM data ORDER BY epoch_day");
+        while(rs.next()){
+            long day = rs.getInt("epoch_day");
+            for(int i = 1; i <= TideAssetCompiler.TIDE_SLOTS; i++){
+                if(rs.getObject("tide"+i+"_time") == null){
+                    continue;
+                }
+                events.add(new long[]{day*1440 + rs.getInt("tide"+i+"_time"), rs.getInt("tide"+i+"_height"),
+                        rs.getInt("tide"+i+"_type")});
+            }
+        }
+        rs.close();
+        query.close();
+        return events;
+    }
+
+    /*
+    * Least squares solution for {Z0, a1, b1, a2, b2, ...}, where constituent k contributes
+    * f * (a cos(angle) + b sin(angle)) to the height.
+     */
+    private static double[] fit(ArrayList<long[]> events, String[] names){
+        int k = names.length;
+        int size = 1 + 2*k;
+        double[][] normal = new double[size][size];
+        double[] rhs = new double[size];
+        double[] row = new double[size];
+        double[] f = new double[k], u = new double[k];
+        double[] speed = new double[k];
+        for(int i = 0; i < k; i++){
+            speed[i] = Math.toRadians(TidePredictor.SPEEDS[TidePredictor.indexOf(names[i])]) / 60;
+        }
+        TidePredictor nodal = new TidePredictor(0, names, new double[k], new double[k]);
+
+        for(long[] event : events){
+            nodal.getNodal(event[0], f, u);
+            double t = event[0] - TidePredictor.EPOCH_2000;
+
+            // Height at the event
+            row[0] = 1;
+            for(int i = 0; i < k; i++){
+                double angle = speed[i]*t + u[i];
+                row[1 + 2*i] = f[i]*Math.cos(angle);
+                row[2 + 2*i] = f[i]*Math.sin(angle);
+            }
+            accumulate(normal, rhs, row, event[1] / 100.0);
+
+            // Rate of change (per hour) of zero at the event
+            row[0] = 0;
+            for(int i = 0; i < k; i++){
+                double angle = speed[i]*t + u[i];
+                double w = speed[i]*60;
+                row[1 + 2*i] = -f[i]*w*Math.sin(angle);
+                row[2 + 2*i] = f[i]*w*Math.cos(angle);
+            }
+            accumulate(normal, rhs, row, 0);
+        }
+        // A little damping keeps long-period terms sensible when the table is short
+        for(int i = 0; i < size; i++){
+            normal[i][i] += 1e-6;
+        }
+        return solve(normal, rhs);
+    }
+
+    private static void accumulate(double[][] normal, double[] rhs, double[] row, double value){
+        for(int i = 0; i < row.length; i++){
+            if(row[i] == 0){
+                continue;
+            }
+            rhs[i] += row[i]*value;
+            for(int j = 0; j < row.length; j++){
+                normal[i][j] += row[i]*row[j];
+            }
+        }
+    }
+
+    /*
+    * Gaussian elimination with partial pivoting.
+     */
+    private static double[] solve(double[][] a, double[] b){
+        int n = b.length;
+        for(int col = 0; col < n; col++){
+            int pivot = col;
+            for(int r = col + 1; r < n; r++){
+                if(Math.abs(a[r][col]) > Math.abs(a[pivot][col])){
+                    pivot = r;
+                }
+            }
+            double[] tmp = a[col]; a[col] = a[pivot]; a[pivot] = tmp;
+            double t = b[col]; b[col] = b[pivot]; b[pivot] = t;
+            for(int r = col + 1; r < n; r++){
+                double factor = a[r][col] / a[col][col];
+                b[r] -= factor*b[col];
+                for(int c = col; c < n; c++){
+                    a[r][c] -= factor*a[col][c];
+                }
+            }
+        }
+        double[] x = new double[n];
+        for(int r = n - 1; r >= 0; r--){
+            double sum = b[r];
+            for(int c = r + 1; c < n; c++){
+                sum -= a[r][c]*x[c];
+            }
+            x[r] = sum / a[r][r];
+        }
+        return x;
+    }
+
+    /*
+    * Predict over the whole table and match events. Returns {time RMS (min), max time error (min), height RMS (m),
+    * max height error (m), unmatched events}.
+     */
+    private static double[] validate(TidePredictor predictor, ArrayList<long[]> events){
+        long from = events.get(0)[0] - MATCH_WINDOW;
+        long to = events.get(events.size()-1)[0] + MATCH_WINDOW;
+        int capacity = (int)((to - from) / 300) + 8; // tides are at least ~5 hours apart
+        long[] times = new long[capacity];
+        int[] heights = new int[capacity];
+        int[] types = new int[capacity];
+        int found = predictor.predictEvents(from, to, times, heights, types);
+
+        double timeSquares = 0, heightSquares = 0, maxTime = 0, maxHeight = 0;
+        int matched = 0, unmatched = 0;
+        for(long[] event : events){
+            int i = Arrays.binarySearch(times, 0, found, event[0]);
+            if(i < 0){
+                i = -i - 1;
+            }
+            int best = -1;
+            for(int j = Math.max(0, i - 2); j < Math.min(found, i + 2); j++){
+                if(types[j] == event[2] && (best < 0 || Math.abs(times[j] - event[0]) < Math.abs(times[best] - event[0]))){
+                    best = j;
+                }
+            }
+            if(best < 0 || Math.abs(times[best] - event[0]) > MATCH_WINDOW){
+                unmatched++;
+                continue;
+            }
+            double dt = times[best] - event[0];
+            double dh = (heights[best] - event[1]) / 100.0;
+            timeSquares += dt*dt;
+            heightSquares += dh*dh;
+            maxTime = Math.max(maxTime, Math.abs(dt));
+            maxHeight = Math.max(maxHeight, Math.abs(dh));
+            matched++;
+        }
+        matched = Math.max(matched, 1);
+        return new double[]{Math.sqrt(timeSquares/matched), maxTime, Math.sqrt(heightSquares/matched), maxHeight, unmatched};
+    }
+}
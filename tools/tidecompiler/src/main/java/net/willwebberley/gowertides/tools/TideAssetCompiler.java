@@ -0,0 +1,288 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+* Converts the raw tide tables into the asset database read by DayDatabase.
+*
+* The raw 'data' table has one row per day, with times as text in UK local time (e.g. "6:42 AM BST") and heights as
+* text in metres (e.g. "8.9m"):
+*   0year 1month 2day 3week_day 4sunrise 5sunset 6moon 7high1_time 8high1_height 9low1_time 10low1_height
+*   11high2_time 12high2_height 13low2_time 14low2_height 15high3_time 16high3_height
+*
+* The compiled 'data' table keeps one row per day, keyed by days since the epoch, with:
+*   - times as minutes from midnight UTC of that date (so -60 to -1 for events just after midnight BST),
+*   - heights in centimetres,
+*   - an explicit type for each tide (0 = low, 1 = high).
+* Unused tide slots are NULL.
+ */
+public class TideAssetCompiler {
+
+    public static final int TIDE_SLOTS = 5;
+    public static final int LOW = 0;
+    public static final int HIGH = 1;
+
+    // Binary tide store layout (must match TideStore in the app)
+    public static final int STORE_MAGIC = 0x47545344; // "GTSD"
+    public static final int STORE_VERSION = 1;
+    public static final int STORE_HEADER_SIZE = 16;
+    public static final int STORE_RECORD_SIZE = 48;
+    public static final int STORE_MOON_LENGTH = 16;
+    public static final int STORE_TIDES_OFFSET = 22;
+    public static final int STORE_TIDE_SIZE = 5;
+    public static final int STORE_MISSING = Short.MIN_VALUE;
+
+    private static final Pattern TIME = Pattern.compile("(\\d{1,2}):(\\d{1,2})\\s*(AM|PM)\\s*(BST|GMT)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HEIGHT = Pattern.compile("(-?\\d+(?:\\.\\d+)?)\\s*m?", Pattern.CASE_INSENSITIVE);
+    private static final TimeZone UK = TimeZone.getTimeZone("Europe/London");
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2 && args.length != 3){
+            System.err.println("Usage: TideAssetCompiler <raw tides db> <output db> [output store]");
+            System.exit(1);
+        }
+        File output = new File(args[1]);
+        if(output.getParentFile() != null){
+            output.getParentFile().mkdirs();
+        }
+        if(output.exists() && !output.delete()){
+            throw new IllegalStateException("Could not replace "+output);
+        }
+
+        Class.forName("org.sqlite.JDBC");
+        Connection in = DriverManager.getConnection("jdbc:sqlite:"+args[0]);
+        Connection out = DriverManager.getConnection("jdbc:sqlite:"+output.getPath());
+        try{
+            int rows = compile(in, out);
+            System.out.println("Compiled "+rows+" days into "+output);
+            if(args.length == 3){
+                File store = new File(args[2]);
+                if(store.getParentFile() != null){
+                    store.getParentFile().mkdirs();
+                }
+                writeStore(out, store);
+                System.out.println("Wrote tide store "+store);
+            }
+        }
+        finally{
+            in.close();
+            out.close();
+        }
+    }
+
+    /*
+    * Create the compiled schema in 'out' and fill it from the raw table in 'in'. Returns the number of days written.
+     */
+    public static int compile(Connection in, Connection out) throws SQLException {
+        Statement create = out.createStatement();
+        create.executeUpdate("CREATE TABLE android_metadata (locale TEXT DEFAULT 'en_US')");
+        create.executeUpdate("INSERT INTO android_metadata VALUES ('en_US')");
+        StringBuilder table = new StringBuilder("CREATE TABLE data (epoch_day INTEGER PRIMARY KEY, year INTEGER, " +
+                "month INTEGER, day INTEGER, week_day TEXT, moon TEXT, sunrise INTEGER, sunset INTEGER");
+        for(int i = 1; i <= TIDE_SLOTS; i++){
+            table.append(", tide").append(i).append("_time INTEGER");
+            table.append(", tide").append(i).append("_height INTEGER");
+            table.append(", tide").append(i).append("_type INTEGER");
+        }
+        table.append(")");
+        create.executeUpdate(table.toString());
+        create.close();
+
+        StringBuilder insert = new StringBuilder("INSERT INTO data VALUES (?,?,?,?,?,?,?,?");
+        for(int i = 0; i < TIDE_SLOTS*3; i++){
+            insert.append(",?");
+        }
+        insert.append(")");
+
+        out.setAutoCommit(false);
+        PreparedStatement ps = out.prepareStatement(insert.toString());
+        Statement query = in.createStatement();
+        ResultSet rs = query.executeQuery("SELECT * FROM data ORDER BY year, month, day");
+        int rows = 0;
+        while(rs.next()){
+            int year = rs.getInt(1), month = rs.getInt(2), day = rs.getInt(3);
+            int epochDay = toEpochDay(year, month, day);
+            String date = year+"-"+month+"-"+day;
+
+            ps.clearParameters();
+            ps.setInt(1, epochDay);
+            ps.setInt(2, year);
+            ps.setInt(3, month);
+            ps.setInt(4, day);
+            ps.setString(5, rs.getString(4));
+            ps.setString(6, rs.getString(7));
+            ps.setInt(7, parseTime(rs.getString(5), epochDay, date));
+            ps.setInt(8, parseTime(rs.getString(6), epochDay, date));
+
+            // Raw columns alternate high, low, high, low, high (the same order the app has always read them in)
+            int slot = 0;
+            for(int col = 8; col <= 16; col = col + 2){
+                String time = rs.getString(col);
+                if(time == null || time.trim().equals("")){
+                    continue;
+                }
+                int type = ((col - 8) / 2) % 2 == 0 ? HIGH : LOW;
+                ps.setInt(9 + slot*3, parseTime(time, epochDay, date));
+                ps.setInt(10 + slot*3, parseHeight(rs.getString(col+1), date));
+                ps.setInt(11 + slot*3, type);
+                slot++;
+            }
+            for(; slot < TIDE_SLOTS; slot++){
+                ps.setNull(9 + slot*3, java.sql.Types.INTEGER);
+                ps.setNull(10 + slot*3, java.sql.Types.INTEGER);
+                ps.setNull(11 + slot*3, java.sql.Types.INTEGER);
+            }
+            ps.executeUpdate();
+            rows++;
+        }
+        rs.close();
+        query.close();
+        ps.close();
+        out.commit();
+        return rows;
+    }
+
+    /*
+    * Write the compiled table in 'db' out as the fixed-width binary file read by TideStore in the app (see that class
+    * for the layout). Days missing from the table between the first and last day are marked as missing.
+     */
+    public static void writeStore(Connection db, File file) throws SQLException, IOException {
+        Statement query = db.createStatement();
+        ResultSet bounds = query.executeQuery("SELECT MIN(epoch_day), MAX(epoch_day) FROM data");
+        bounds.next();
+        int first = bounds.getInt(1);
+        int count = bounds.getInt(2) - first + 1;
+        bounds.close();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try{
+            out.writeInt(STORE_MAGIC);
+            out.writeInt(STORE_VERSION);
+            out.writeInt(first);
+            out.writeInt(count);
+
+            ResultSet rs = query.executeQuery("SELECT * FROM data ORDER BY epoch_day");
+            int next = first;
+            while(rs.next()){
+                int epochDay = rs.getInt("epoch_day");
+                for(; next < epochDay; next++){
+                    writeMissingRecord(out);
+                }
+                out.writeShort(rs.getInt("sunrise"));
+                out.writeShort(rs.getInt("sunset"));
+                int tides = 0;
+                while(tides < TIDE_SLOTS && rs.getObject("tide"+(tides+1)+"_time") != null){
+                    tides++;
+                }
+                out.writeByte(tides);
+                out.writeByte(0);
+
+                byte[] moon = rs.getString("moon") == null ? new byte[0] : rs.getString("moon").getBytes("ISO-8859-1");
+                for(int i = 0; i < STORE_MOON_LENGTH; i++){
+                    out.writeByte(i < moon.length ? moon[i] : 0);
+                }
+                for(int i = 1; i <= TIDE_SLOTS; i++){
+                    if(i <= tides){
+                        out.writeShort(rs.getInt("tide"+i+"_time"));
+                        out.writeShort(rs.getInt("tide"+i+"_height"));
+                        out.writeByte(rs.getInt("tide"+i+"_type"));
+                    }
+                    else{
+                        out.write(new byte[STORE_TIDE_SIZE]);
+                    }
+                }
+                out.write(new byte[STORE_RECORD_SIZE - STORE_TIDES_OFFSET - TIDE_SLOTS*STORE_TIDE_SIZE]);
+                next++;
+            }
+            rs.close();
+        }
+        finally{
+            query.close();
+            out.close();
+        }
+    }
+
+    private static void writeMissingRecord(DataOutputStream out) throws IOException {
+        out.writeShort(STORE_MISSING);
+        out.write(new byte[STORE_RECORD_SIZE - 2]);
+    }
+
+    /*
+    * Parse a UK local time such as "6:42 AM BST" into minutes from midnight UTC on the given day. If the string has no
+    * zone, the UK offset in force at that time is used.
+     */
+    public static int parseTime(String text, int epochDay, String date){
+        Matcher m = TIME.matcher(text == null ? "" : text.trim());
+        if(!m.find()){
+            throw new IllegalArgumentException("Bad time '"+text+"' on "+date);
+        }
+        int hour = Integer.parseInt(m.group(1)) % 12;
+        int minute = Integer.parseInt(m.group(2));
+        if(m.group(3).equalsIgnoreCase("PM")){
+            hour += 12;
+        }
+        int local = hour*60 + minute;
+
+        int offset;
+        if(m.group(4) == null){
+            offset = UK.getOffset(epochDay*86400000L + local*60000L) / 60000;
+        }
+        else{
+            offset = m.group(4).equalsIgnoreCase("BST") ? 60 : 0;
+        }
+        return local - offset;
+    }
+
+    /*
+    * Parse a height such as "8.9m" into centimetres.
+     */
+    public static int parseHeight(String text, String date){
+        Matcher m = HEIGHT.matcher(text == null ? "" : text.trim());
+        if(!m.find()){
+            throw new IllegalArgumentException("Bad height '"+text+"' on "+date);
+        }
+        return (int)Math.round(Double.parseDouble(m.group(1)) * 100);
+    }
+
+    /*
+    * Days since 1970-01-01 (same arithmetic as Utilities.toEpochDay() in the app).
+     */
+    public static int toEpochDay(int year, int month, int day){
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+Copyright 2013 Will Webberley.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The full text of the License is available in the root of this
+project repository.
+*/
+
+package net.willwebberley.gowertides.tools;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/*
+* Compares the two tide file formats on the lookups DaysActivity makes: 40 consecutive days, one day at a time.
+*
+* 'Cold' includes opening the database/mapping the file and the first pass over the days; 'warm' is the average of
+* later passes. Runs on the plain JVM with sqlite-jdbc and a raw buffer read, not the app's TideStore or DayDatabase
+* Cursors, so it only checks the formats themselves (TideSourceBenchmarkTest compares the backends on a device):
+*
+*   gradle benchmarkTideAsset
+ */
+public class TideStoreBenchmark {
+
+    private static final int DAYS = 40;
+    private static final int WARM_RUNS = 200;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2){
+            System.err.println("Usage: TideStoreBenchmark <compiled db> <tide store>");
+            System.exit(1);
+        }
+        Class.forName("org.sqlite.JDBC");
+
+        long start = System.nanoTime();
+        Connection db = DriverManager.getConnection("jdbc:sqlite:"+args[0]);
+        PreparedStatement ps = db.prepareStatement("SELECT * FROM data WHERE epoch_day = ?");
+        ResultSet bounds = db.createStatement().executeQuery("SELECT MIN(epoch_day) FROM data");
+        bounds.next();
+        int first = bounds.getInt(1);
+        bounds.close();
+        long checksum = sqlitePass(ps, first);
+        long sqliteCold = System.nanoTime() - start;
+        start = System.nanoTime();
+        for(int i = 0; i < WARM_RUNS; i++){
+            checksum += sqlitePass(ps, first);
+        }
+        long sqliteWarm = (System.nanoTime() - start) / WARM_RUNS;
+        db.close();
+
+        start = System.nanoTime();
+        RandomAccessFile file = new RandomAccessFile(new File(args[1]), "r");
+        ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        file.close();
+        long storeChecksum = storePass(buffer);
+        long storeCold = System.nanoTime() - start;
+        start = System.nanoTime();
+        for(int i = 0; i < WARM_RUNS; i++){
+            storeChecksum += storePass(buffer);
+        }
+        long storeWarm = (System.nanoTime() - start) / WARM_RUNS;
+
+        System.out.println("SQLite asset: cold "+(sqliteCold/1000)+"us, warm "+(sqliteWarm/1000)+"us per "+DAYS+" days");
+        System.out.println("Tide store:   cold "+(storeCold/1000)+"us, warm "+(storeWarm/1000)+"us per "+DAYS+" days");
+        if(checksum != storeChecksum){
+            System.err.println("Backends disagree!");
+            System.exit(1);
+        }
+    }
+
+    /*
+    * Read the sunrise, sunset and tide columns for each day, returning a checksum of the values read.
+     */
+    private static long sqlitePass(PreparedStatement ps, int first) throws Exception {
+        long sum = 0;
+        for(int day = first; day < first + DAYS; day++){
+            ps.setInt(1, day);
+            ResultSet rs = ps.executeQuery();
+            if(rs.next()){
+                sum += rs.getInt("sunrise") + rs.getInt("sunset");
+                for(int i = 1; i <= TideAssetCompiler.TIDE_SLOTS; i++){
+                    sum += rs.getInt("tide"+i+"_time") + rs.getInt("tide"+i+"_height") + rs.getInt("tide"+i+"_type");
+                }
+            }
+            rs.close();
+        }
+        return sum;
+    }
+
+    private static long storePass(ByteBuffer buffer){
+        long sum = 0;
+        int count = Math.min(DAYS, buffer.getInt(12));
+        for(int i = 0; i < count; i++){
+            int record = TideAssetCompiler.STORE_HEADER_SIZE + i*TideAssetCompiler.STORE_RECORD_SIZE;
+            if(buffer.getShort(record) == TideAssetCompiler.STORE_MISSING){
+                continue;
+            }
+            sum += buffer.getShort(record) + buffer.getShort(record + 2);
+            int tides = buffer.get(record + 4);
+            for(int t = 0; t < tides; t++){
+                int tide = record + TideAssetCompiler.STORE_TIDES_OFFSET + t*TideAssetCompiler.STORE_TIDE_SIZE;
+                sum += buffer.getShort(tide) + buffer.getShort(tide + 2) + buffer.get(tide + 4);
+            }
+        }
+        return sum;
+    }
+}